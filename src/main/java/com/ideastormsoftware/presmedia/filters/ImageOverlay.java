@@ -15,10 +15,28 @@
  */
 package com.ideastormsoftware.presmedia.filters;
 
+import com.ideastormsoftware.presmedia.sources.ImageSource;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 
 public interface ImageOverlay {
 
     public void apply(Graphics2D graphics, Dimension targetSize);
+
+    /**
+     * @return a number that increases whenever the overlay would draw
+     * differently, or {@link ImageSource#UNVERSIONED} while it is animating
+     */
+    public default long getFrameNumber() {
+        return ImageSource.UNVERSIONED;
+    }
+
+    /**
+     * @return the area {@link #apply(Graphics2D, Dimension)} may draw in on a
+     * screen of the given size
+     */
+    public default Rectangle getBounds(Dimension targetSize) {
+        return new Rectangle(targetSize);
+    }
 }
@@ -1,20 +1,24 @@
 package com.ideastormsoftware.presmedia.filters;
 
-import java.awt.AlphaComposite;
+import com.ideastormsoftware.presmedia.sources.ImageSource;
 import java.awt.Color;
 import java.awt.Dimension;
-import java.awt.Font;
 import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.image.BufferedImage;
+import java.awt.Rectangle;
+import java.awt.Shape;
 import java.util.List;
 
 public class Lyrics implements ImageOverlay {
 
+    private static final Color SHADOW = new Color(0, 0, 0, 127);
+    //a song's worth of lines, at a couple of display sizes
+    private static final int MAX_SPRITES = 128;
     private String title;
     private List<String> lines;
     private transient int index = 0;
     private transient long transitionStartTs;
+    private transient TextSprites sprites;
+    private transient volatile long version = 0;
 
     public List<String> getLines() {
         return lines;
@@ -23,10 +27,12 @@ public class Lyrics implements ImageOverlay {
     public void setLines(List<String> lines) {
         this.lines = lines;
         index = 0;
+        version++;
     }
 
     public void reset() {
         index = 0;
+        version++;
     }
 
     public void advance() {
@@ -38,9 +44,20 @@ public class Lyrics implements ImageOverlay {
                 index++;
             }
             transitionStartTs = System.currentTimeMillis();
+            version++;
         }
     }
 
+    @Override
+    public long getFrameNumber() {
+        long sinceTransition = System.currentTimeMillis() - transitionStartTs;
+        if (sinceTransition >= 0 && sinceTransition < 1500) {
+            //still scrolling, and transitionShift() has yet to settle the index
+            return ImageSource.UNVERSIONED;
+        }
+        return version;
+    }
+
     private float transitionShift() {
         float delta = (System.currentTimeMillis() - transitionStartTs) / 1000.0f;
         if (delta < 0) {
@@ -49,6 +66,7 @@ public class Lyrics implements ImageOverlay {
             if (delta < 1.5) {
                 transitionStartTs = 0;
                 index++;
+                version++;
             }
             return 0;
         } else {
@@ -58,40 +76,34 @@ public class Lyrics implements ImageOverlay {
 
     @Override
     public void apply(Graphics2D graphics, Dimension targetSize) {
-        //Start by finding ow wide we can be to fit in a 4:3 aspect ratio screen
-        int w = targetSize.width;
-        if (targetSize.width * 3 > targetSize.height * 4) {
-            w = targetSize.height * 4 / 3;
-        }
-        int aspectOffset = (targetSize.width - w) / 2;
-        int offset = w / 10;
-
-        int shadowWidth = w - offset;
-        w = w * 8 / 10;
-
-        float estimatedCharacterHeight = w / 40 * 2.5f;
-        int totalHeight = (int) (estimatedCharacterHeight * 3.2f);
-        int vOffset = (int) (targetSize.height - totalHeight);
-
-        Font font = Font.decode("Verdana");
-        font = font.deriveFont(estimatedCharacterHeight * 72 / 96);
-
-        graphics.setColor(new Color(0, 0, 0, 127));
-        graphics.fillRect(aspectOffset + offset / 2, vOffset - offset / 2, shadowWidth, totalHeight + offset / 2);
-        BufferedImage text = new BufferedImage(w, totalHeight, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D t = text.createGraphics();
-        t.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-        t.setFont(font);
-        t.setComposite(AlphaComposite.Clear);
-        t.fillRect(0, 0, w, totalHeight);
-        t.setComposite(AlphaComposite.Src);
-        t.setColor(Color.white);
-        float lineOffset = estimatedCharacterHeight - transitionShift() * estimatedCharacterHeight;
+        Layout layout = new Layout(targetSize);
+        graphics.setColor(SHADOW);
+        graphics.fillRect(layout.shadow.x, layout.shadow.y, layout.shadow.width, layout.shadow.height);
+        Rectangle text = layout.text;
+        //the lines scroll through a window the height of the text block
+        Shape clip = graphics.getClip();
+        graphics.clipRect(text.x, text.y, text.width, text.height);
+        TextSprites cache = getSprites();
+        float lineOffset = layout.characterHeight - transitionShift() * layout.characterHeight;
         for (int i = index; i < lines.size() && i < index + 4; i++) {
-            t.drawString(lines.get(i), 0, lineOffset);
-            lineOffset += estimatedCharacterHeight;
+            TextSprites.Sprite line = cache.get(lines.get(i), layout.fontSize, text.width);
+            graphics.drawImage(line.image, text.x, text.y + Math.round(lineOffset) - line.baseline, null);
+            lineOffset += layout.characterHeight;
+        }
+        graphics.setClip(clip);
+    }
+
+    @Override
+    public Rectangle getBounds(Dimension targetSize) {
+        Layout layout = new Layout(targetSize);
+        return layout.shadow.union(layout.text);
+    }
+
+    private synchronized TextSprites getSprites() {
+        if (sprites == null) {
+            sprites = new TextSprites("Verdana", Color.white, MAX_SPRITES);
         }
-        graphics.drawImage(text, aspectOffset + offset, vOffset - offset / 4, null);
+        return sprites;
     }
 
     public String getTitle() {
@@ -102,6 +114,38 @@ public class Lyrics implements ImageOverlay {
         this.title = title;
     }
 
+    /**
+     * Where the lyrics go on a screen of a given size.
+     */
+    private static class Layout {
+
+        final Rectangle shadow;
+        final Rectangle text;
+        final float characterHeight;
+        final float fontSize;
+
+        Layout(Dimension targetSize) {
+            //Start by finding ow wide we can be to fit in a 4:3 aspect ratio screen
+            int w = targetSize.width;
+            if (targetSize.width * 3 > targetSize.height * 4) {
+                w = targetSize.height * 4 / 3;
+            }
+            int aspectOffset = (targetSize.width - w) / 2;
+            int offset = w / 10;
+
+            int shadowWidth = w - offset;
+            w = w * 8 / 10;
+
+            characterHeight = w / 40 * 2.5f;
+            int totalHeight = (int) (characterHeight * 3.2f);
+            int vOffset = (int) (targetSize.height - totalHeight);
+
+            fontSize = characterHeight * 72 / 96;
+            shadow = new Rectangle(aspectOffset + offset / 2, vOffset - offset / 2, shadowWidth, totalHeight + offset / 2);
+            text = new Rectangle(aspectOffset + offset, vOffset - offset / 4, w, totalHeight);
+        }
+    }
+
     @Override
     public String toString() {
         return getTitle();
@@ -1,21 +1,59 @@
 package com.ideastormsoftware.presmedia.filters;
 
 import com.ideastormsoftware.presmedia.util.ImageUtils;
-import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class Name implements ImageOverlay {
 
     private String name = "";
     private String subtext = "";
+    private transient volatile long version = 0;
+    private static final Color SHADOW = new Color(0, 0, 0, 127);
+    //the preview and the projector paint at different sizes, so keep one per size
+    private static final int MAX_SIZES = 4;
+    private final transient Map<Dimension, LowerThird> rendered = new LinkedHashMap<Dimension, LowerThird>(MAX_SIZES * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Dimension, LowerThird> eldest) {
+            return size() > MAX_SIZES;
+        }
+    };
 
     @Override
     public void apply(Graphics2D graphics, Dimension targetScreenSize) {
+        LowerThird lowerThird = lowerThird(targetScreenSize);
+        graphics.drawImage(lowerThird.image, lowerThird.x, lowerThird.y, null);
+    }
+
+    @Override
+    public Rectangle getBounds(Dimension targetScreenSize) {
+        LowerThird lowerThird = lowerThird(targetScreenSize);
+        return new Rectangle(lowerThird.x, lowerThird.y, lowerThird.image.getWidth(), lowerThird.image.getHeight());
+    }
+
+    private LowerThird lowerThird(Dimension targetScreenSize) {
+        synchronized (rendered) {
+            LowerThird lowerThird = rendered.get(targetScreenSize);
+            if (lowerThird == null) {
+                lowerThird = render(targetScreenSize);
+                rendered.put(new Dimension(targetScreenSize), lowerThird);
+            }
+            return lowerThird;
+        }
+    }
+
+    /**
+     * Draws the shadow box and text into one image, which is blitted every
+     * frame until the name or screen size changes.
+     */
+    private LowerThird render(Dimension targetScreenSize) {
         //Start by finding ow wide we can be to fit in a 4:3 aspect ratio screen
         int w = targetScreenSize.width;
         if (targetScreenSize.width * 3 > targetScreenSize.height * 4) {
@@ -32,21 +70,36 @@ public class Name implements ImageOverlay {
         Font font = Font.decode("Verdana");
         font = font.deriveFont(estimatedCharacterHeight * 72 / 96);
 
-        graphics.setColor(new Color(0, 0, 0, 127));
-        graphics.fillRect(aspectOffset + offset / 2, vOffset - offset / 2, shadowWidth, totalHeight + offset / 2);
-        BufferedImage text = new BufferedImage(w, totalHeight, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D t = text.createGraphics();
+        Rectangle shadow = new Rectangle(aspectOffset + offset / 2, vOffset - offset / 2, shadowWidth, totalHeight + offset / 2);
+        Rectangle text = new Rectangle(aspectOffset + offset, vOffset - offset / 4, w, totalHeight);
+        Rectangle bounds = shadow.union(text);
+        BufferedImage image = new BufferedImage(Math.max(bounds.width, 1), Math.max(bounds.height, 1), BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D t = image.createGraphics();
+        t.setColor(SHADOW);
+        t.fillRect(shadow.x - bounds.x, shadow.y - bounds.y, shadow.width, shadow.height);
+        t.translate(text.x - bounds.x, text.y - bounds.y);
+        t.clipRect(0, 0, text.width, text.height);
         t.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
         t.setFont(font);
-        t.setComposite(AlphaComposite.Clear);
-        t.fillRect(0, 0, w, totalHeight);
-        t.setComposite(AlphaComposite.Src);
         t.setColor(Color.white);
         t.drawLine(0, 0, w, 0);
         t.drawString(name, 0, estimatedCharacterHeight);
         t.setFont(font.deriveFont(font.getSize() * 0.8f));
         t.drawString(subtext, 0, estimatedCharacterHeight * 2);
-        graphics.drawImage(text, aspectOffset + offset, vOffset - offset / 4, null);
+        t.dispose();
+        return new LowerThird(image, bounds.x, bounds.y);
+    }
+
+    private void invalidate() {
+        synchronized (rendered) {
+            rendered.clear();
+            version++;
+        }
+    }
+
+    @Override
+    public long getFrameNumber() {
+        return version;
     }
 
     public String getName() {
@@ -55,6 +108,7 @@ public class Name implements ImageOverlay {
 
     public void setName(String name) {
         this.name = name;
+        invalidate();
     }
 
     public String getSubtext() {
@@ -63,10 +117,24 @@ public class Name implements ImageOverlay {
 
     public void setSubtext(String subtext) {
         this.subtext = subtext;
+        invalidate();
     }
 
     @Override
     public String toString() {
         return String.format("%s / %s", getName(), getSubtext());
     }
+
+    private static class LowerThird {
+
+        final BufferedImage image;
+        final int x;
+        final int y;
+
+        LowerThird(BufferedImage image, int x, int y) {
+            this.image = image;
+            this.x = x;
+            this.y = y;
+        }
+    }
 }
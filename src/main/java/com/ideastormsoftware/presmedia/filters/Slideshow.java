@@ -1,18 +1,23 @@
 package com.ideastormsoftware.presmedia.filters;
 
+import com.ideastormsoftware.presmedia.sources.ImageSource;
 import com.ideastormsoftware.presmedia.util.ImageUtils;
+import com.ideastormsoftware.presmedia.util.SlideLoader;
 import java.awt.AlphaComposite;
+import java.awt.Composite;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Optional;
-import javax.imageio.ImageIO;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class Slideshow implements ImageOverlay {
 
@@ -25,6 +30,12 @@ public class Slideshow implements ImageOverlay {
     private transient Optional<BufferedImage> lastImage = Optional.empty();
     private transient Optional<BufferedImage> fadeImage = Optional.empty();
     private transient final List<File> unseenImages = new ArrayList<>();
+    //slides after the one showing, loading in the background
+    private static final int PREFETCH_COUNT = 2;
+    private transient final Queue<Prefetch> upcoming = new ArrayDeque<>();
+    //the largest size painted at, which the slides are loaded for
+    private transient final Dimension prefetchSize = new Dimension();
+    private transient long version = 0;
 
     private void log(String format, Object... params) {
         System.out.printf(format + "\n", params);
@@ -49,41 +60,97 @@ public class Slideshow implements ImageOverlay {
     @Override
     public void apply(Graphics2D graphics, Dimension targetSize) {
         long now = System.currentTimeMillis();
-        //if it's time to transition, this will become true
-        //  lastTransition is set to now to break out of the loop once we've
-        //  got a new file to transition to.
-        while (now - lastTransition > perSlideDelay) {
-            if (files == null || files.isEmpty()) {
-                lastImage = Optional.empty();
-                lastTransition = now;
-            } else {
-                File nextFile = randomize ? pickRandomFile() : nextFile();
-                try {
-                    fadeImage = Optional.of(ImageIO.read(nextFile));
-                    lastTransition = now;
-                } catch (IOException ex) {
-                    files.remove(nextFile);
-                }
+        Optional<BufferedImage> showing;
+        Optional<BufferedImage> fading;
+        float alpha;
+        synchronized (this) {
+            if (targetSize.width * targetSize.height > prefetchSize.width * prefetchSize.height) {
+                prefetchSize.setSize(targetSize);
+                reloadUpcoming();
+            }
+            if (now - lastTransition > perSlideDelay) {
+                transition(now);
             }
+            prefetch();
+            float fadeDelay = Math.min(perSlideDelay * 0.2f, 5_000);
+            alpha = (float) Math.sin(Math.PI / 2 * (now - lastTransition) / fadeDelay);
+            if (now - lastTransition > fadeDelay && fadeImage != null) {
+                lastImage = fadeImage;
+                fadeImage = null;
+                version++;
+            }
+            showing = lastImage;
+            fading = fadeImage;
+        }
+        ImageUtils.drawAspectScaled(graphics, showing, targetSize);
+        if (fading != null) {
+            Composite composite = graphics.getComposite();
+            float baseAlpha = composite instanceof AlphaComposite ? ((AlphaComposite) composite).getAlpha() : 1;
+            graphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, baseAlpha * alpha));
+            ImageUtils.drawAspectScaled(graphics, fading, targetSize);
+            graphics.setComposite(composite);
         }
-        float fadeDelay = Math.min(perSlideDelay * 0.2f, 5_000);
-        float alpha = (float) Math.sin(Math.PI/2 * (now - lastTransition) / fadeDelay); 
+    }
 
-        Optional<BufferedImage> compositeImage = Optional.of(ImageUtils.emptyImage(targetSize));
+    /**
+     * Unversioned while fading, and once the next slide is due, so apply()
+     * keeps being called to move the slideshow along.
+     */
+    @Override
+    public synchronized long getFrameNumber() {
+        if (fadeImage != null || System.currentTimeMillis() - lastTransition > perSlideDelay) {
+            return ImageSource.UNVERSIONED;
+        }
+        return version;
+    }
 
-        if (now - lastTransition > fadeDelay) {
-            if (fadeImage != null) {
-                lastImage = fadeImage;
-                fadeImage = null;
+    /**
+     * Starts fading to the next slide if it has finished loading. If not,
+     * the current slide stays up and this is tried again next frame, so
+     * painting never waits on a slide.
+     */
+    private void transition(long now) {
+        if (files == null || files.isEmpty()) {
+            lastImage = Optional.empty();
+            lastTransition = now;
+            return;
+        }
+        prefetch();
+        while (!upcoming.isEmpty() && upcoming.peek().image.isDone()) {
+            Prefetch next = upcoming.poll();
+            try {
+                fadeImage = Optional.of(next.image.get());
+                lastTransition = now;
+                return;
+            } catch (ExecutionException ex) {
+                log("Skipping slide %s: %s", next.file, ex.getCause());
+                files.remove(next.file);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
             }
-            compositeImage = lastImage;
-        } else {
-            Graphics2D g = compositeImage.get().createGraphics();
-            ImageUtils.drawAspectScaled(g, lastImage, targetSize);
-            g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
-            ImageUtils.drawAspectScaled(g, fadeImage, targetSize);
         }
-        ImageUtils.drawAspectScaled(graphics, compositeImage, targetSize);
+    }
+
+    /**
+     * Loads the queued slides again at the current prefetch size, since
+     * those already loading were sized for a smaller painter, such as the
+     * preview painting before the projector did.
+     */
+    private void reloadUpcoming() {
+        int count = upcoming.size();
+        for (int i = 0; i < count; i++) {
+            Prefetch stale = upcoming.poll();
+            stale.image.cancel(false);
+            upcoming.add(new Prefetch(stale.file, SlideLoader.prefetch(stale.file, prefetchSize)));
+        }
+    }
+
+    private void prefetch() {
+        while (upcoming.size() < PREFETCH_COUNT && files != null && !files.isEmpty()) {
+            File file = randomize ? pickRandomFile() : nextFile();
+            upcoming.add(new Prefetch(file, SlideLoader.prefetch(file, prefetchSize)));
+        }
     }
 
     public String getTitle() {
@@ -98,8 +165,15 @@ public class Slideshow implements ImageOverlay {
         return perSlideDelay;
     }
 
-    public void setFiles(List<File> files) {
+    public synchronized void setFiles(List<File> files) {
         this.files = files;
+        for (Prefetch prefetch : upcoming) {
+            prefetch.image.cancel(false);
+        }
+        upcoming.clear();
+        unseenImages.clear();
+        index = -1;
+        version++;
     }
 
     public void setFiles(Enumeration<File> files) {
@@ -131,4 +205,14 @@ public class Slideshow implements ImageOverlay {
         return title != null && !title.isEmpty() ? title : "Untitled Slideshow";
     }
 
+    private static class Prefetch {
+
+        final File file;
+        final Future<BufferedImage> image;
+
+        Prefetch(File file, Future<BufferedImage> image) {
+            this.file = file;
+            this.image = image;
+        }
+    }
 }
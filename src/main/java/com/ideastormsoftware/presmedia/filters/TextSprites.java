@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.filters;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Lines of text rendered once into transparent sprites, so an overlay
+ * painted every frame only has to blit them. Sprites are kept by text, font
+ * size and width; the least recently used are dropped past a fixed count,
+ * which also clears out sprites for a size the display no longer has.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public class TextSprites {
+
+    private final String fontName;
+    private final Color color;
+    private final Map<Key, Sprite> sprites;
+    private float fontSize = -1;
+    private Font font;
+    private Graphics2D measure;
+
+    public TextSprites(String fontName, Color color, int maximumSprites) {
+        this.fontName = fontName;
+        this.color = color;
+        this.sprites = new LinkedHashMap<Key, Sprite>(maximumSprites * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Sprite> eldest) {
+                return size() > maximumSprites;
+            }
+        };
+    }
+
+    /**
+     * @return the line rendered in the given point size, clipped to the
+     * given width
+     */
+    public synchronized Sprite get(String text, float size, int width) {
+        Key key = new Key(text, size, width);
+        Sprite sprite = sprites.get(key);
+        if (sprite == null) {
+            sprite = render(text, size, width);
+            sprites.put(key, sprite);
+        }
+        return sprite;
+    }
+
+    private Sprite render(String text, float size, int width) {
+        if (measure == null) {
+            measure = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+            measure.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        }
+        if (size != fontSize) {
+            font = Font.decode(fontName).deriveFont(size);
+            fontSize = size;
+        }
+        FontMetrics metrics = measure.getFontMetrics(font);
+        int baseline = metrics.getAscent();
+        BufferedImage image = new BufferedImage(Math.max(width, 1), Math.max(baseline + metrics.getDescent(), 1), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(font);
+        g.setComposite(AlphaComposite.Src);
+        g.setColor(color);
+        g.drawString(text, 0, baseline);
+        g.dispose();
+        return new Sprite(image, baseline);
+    }
+
+    public static class Sprite {
+
+        public final BufferedImage image;
+        /**
+         * Distance from the top of the image to the text's baseline.
+         */
+        public final int baseline;
+
+        Sprite(BufferedImage image, int baseline) {
+            this.image = image;
+            this.baseline = baseline;
+        }
+    }
+
+    private static class Key {
+
+        final String text;
+        final float size;
+        final int width;
+
+        Key(String text, float size, int width) {
+            this.text = text;
+            this.size = size;
+            this.width = width;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return width == other.width && size == other.size && Objects.equals(text, other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(text, size, width);
+        }
+    }
+}
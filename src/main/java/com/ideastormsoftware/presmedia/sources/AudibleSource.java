@@ -0,0 +1,30 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.sources;
+
+/**
+ * A source that also plays sound, so transitions can fade it with the
+ * picture.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public interface AudibleSource {
+
+    /**
+     * Ramps the volume linearly to the given gain, 0 to 1.
+     */
+    public void fadeAudio(float gain, double seconds);
+}
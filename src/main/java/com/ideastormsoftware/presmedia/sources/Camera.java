@@ -55,6 +55,7 @@ public class Camera implements ImageSource, PropertyChangeListener {
     private final Stats captureStats = new Stats();
     private final DSCapture capture;
     private Optional<BufferedImage> currentImage = Optional.empty();
+    private volatile long frameNumber = 0;
     private boolean deinterlace;
 
     static {
@@ -153,6 +154,11 @@ public class Camera implements ImageSource, PropertyChangeListener {
         return captureStats.getRate();
     }
 
+    @Override
+    public long getFrameNumber() {
+        return frameNumber;
+    }
+
     @Override
     public void propertyChange(PropertyChangeEvent evt) {
         switch (Integer.parseInt(evt.getNewValue().toString())) {
@@ -161,6 +167,7 @@ public class Camera implements ImageSource, PropertyChangeListener {
             case DSFiltergraph.FRAME_NOTIFY:
                 long start = System.nanoTime();
                 this.currentImage = Optional.of(deinterlace? deinterlacer.filter(capture.getImage()):capture.getImage());
+                frameNumber++;
                 captureStats.addValue(System.nanoTime() - start);
                 break;
             default:
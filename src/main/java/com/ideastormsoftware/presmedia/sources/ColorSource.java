@@ -21,13 +21,13 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.util.Optional;
-import java.util.function.Supplier;
 
 @AspectAgnostic
-public class ColorSource implements Supplier<Optional<BufferedImage>> {
+public class ColorSource implements ImageSource {
 
     private Color color;
     private final BufferedImage currentImage;
+    private volatile long frameNumber = 0;
 
     public ColorSource() {
         this(Color.black);
@@ -48,10 +48,21 @@ public class ColorSource implements Supplier<Optional<BufferedImage>> {
         g.setColor(color);
         g.fillRect(0, 0, currentImage.getWidth(), currentImage.getHeight());
         this.color = color;
+        frameNumber++;
     }
 
     @Override
     public Optional<BufferedImage> get() {
         return Optional.of(currentImage);
     }
+
+    @Override
+    public double getFps() {
+        return 0;
+    }
+
+    @Override
+    public long getFrameNumber() {
+        return frameNumber;
+    }
 }
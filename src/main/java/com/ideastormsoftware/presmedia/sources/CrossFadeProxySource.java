@@ -21,9 +21,13 @@ import com.ideastormsoftware.presmedia.filters.ImageOverlay;
 import java.awt.AlphaComposite;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.function.Supplier;
 import org.imgscalr.Scalr;
@@ -36,23 +40,55 @@ public class CrossFadeProxySource extends ScaledSource {
     private final Stats stats = new Stats();
     private final List<ImageOverlay> postScaleOverlays = new ArrayList<>();
     private final Object fadeSourceMutex = new Object();
+    private long overlayChanges = 0;
+    //the preview and the projector composite at different sizes, so keep layers for each
+    private static final int MAX_LAYER_SIZES = 4;
+    private final Map<Dimension, Layers> layers = new LinkedHashMap<Dimension, Layers>(MAX_LAYER_SIZES * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Dimension, Layers> eldest) {
+            return size() > MAX_LAYER_SIZES;
+        }
+    };
 
     public void appendOverlay(ImageOverlay overlay) {
         synchronized (postScaleOverlays) {
             postScaleOverlays.add(overlay);
+            overlayChanges++;
         }
     }
 
     public void removeOverlay(ImageOverlay overlay) {
         synchronized (postScaleOverlays) {
             postScaleOverlays.remove(overlay);
+            overlayChanges++;
         }
     }
 
+    @Override
+    public FrameKey getFrameKey() {
+        synchronized (fadeSourceMutex) {
+            if (fadeIntoSource != null) {
+                return FrameKey.UNVERSIONED;
+            }
+        }
+        FrameKey key = super.getFrameKey();
+        synchronized (postScaleOverlays) {
+            key = key.with(overlayChanges);
+            for (ImageOverlay overlay : postScaleOverlays) {
+                key = key.with(overlay.getFrameNumber());
+            }
+        }
+        return key;
+    }
+
     @Override
     public CrossFadeProxySource setSource(Supplier<Optional<BufferedImage>> source) {
         stats.reset();
         log("Starting fade");
+        if (source instanceof AudibleSource) {
+            //silent until the picture starts fading in
+            ((AudibleSource) source).fadeAudio(0, 0);
+        }
         if (source instanceof Startable) {
             try {
                 log("starting source");
@@ -75,28 +111,33 @@ public class CrossFadeProxySource extends ScaledSource {
         synchronized (fadeSourceMutex) {
             fadeIntoSource = null;
         }
-        if (getSource() instanceof CleanCloseable) {
-            log("Closing existing closeable source");
-            ((CleanCloseable) getSource()).close();
-        }
-
         if (source instanceof Startable) {
             try {
                 log("starting source");
+                //the old source stays up until the new one has something to show
                 ((Startable) source).start(() -> {
                     log("source started, setting base source");
-                    super.setSource(source);
+                    replaceBaseSource(source);
                 });
             } catch (InterruptedException ex) {
                 ex.printStackTrace();
             }
         } else {
             log("non-startable source, setting source");
-            super.setSource(source);
+            replaceBaseSource(source);
         }
         return this;
     }
 
+    private void replaceBaseSource(Supplier<Optional<BufferedImage>> source) {
+        Supplier<Optional<BufferedImage>> previous = getSource();
+        super.setSource(source);
+        if (previous != source && previous instanceof CleanCloseable) {
+            log("Closing existing closeable source");
+            ((CleanCloseable) previous).close();
+        }
+    }
+
     private void setFadeSourceInternal(Supplier<Optional<BufferedImage>> source) {
         synchronized (fadeSourceMutex) {
             if (fadeIntoSource != null) {
@@ -111,6 +152,12 @@ public class CrossFadeProxySource extends ScaledSource {
             log("setting fade source");
             fadeIntoSource = source;
             fadeStartTime = System.nanoTime();
+            if (getSource() instanceof AudibleSource) {
+                ((AudibleSource) getSource()).fadeAudio(0, FADE_DURATION);
+            }
+            if (source instanceof AudibleSource) {
+                ((AudibleSource) source).fadeAudio(1, FADE_DURATION);
+            }
             log("fade source set, fade start time set");
         }
     }
@@ -125,19 +172,43 @@ public class CrossFadeProxySource extends ScaledSource {
         System.out.println(message);
     }
 
+    /**
+     * Outside of fades, draws from cached layers: the base source is only
+     * rescaled when it has a new frame, and overlay changes only recomposite
+     * the area they cover.
+     */
     @Override
-    protected void drawScaled(Graphics2D g, Optional<BufferedImage> img, Dimension targetSize, Optional<Scalr.Method> quality) {
+    public void scaleInto(Graphics2D g, Dimension targetSize, Optional<Scalr.Method> quality) {
+        synchronized (fadeSourceMutex) {
+            if (fadeIntoSource != null) {
+                super.scaleInto(g, targetSize, quality);
+                return;
+            }
+        }
         long startTime = System.nanoTime();
-        if (getSource().getClass().isAnnotationPresent(AspectAgnostic.class)) {
-            ImageUtils.drawIgnoringAspect(g, img, targetSize, quality);
-        } else {
-            ImageUtils.drawAspectScaled(g, img, targetSize, quality);
+        Layers sized;
+        synchronized (layers) {
+            sized = layers.get(targetSize);
+            if (sized == null) {
+                sized = new Layers(new Dimension(targetSize));
+                layers.put(sized.size, sized);
+            }
         }
+        sized.draw(g, quality);
+        stats.addValue(System.nanoTime() - startTime);
+    }
+
+    @Override
+    protected void drawScaled(Graphics2D g, Optional<BufferedImage> img, Dimension targetSize, Optional<Scalr.Method> quality) {
+        long startTime = System.nanoTime();
+        drawBase(g, img, targetSize, quality);
         synchronized (fadeSourceMutex) {
             if (fadeIntoSource != null) {
                 Optional<BufferedImage> overlayImage;
                 if (fadeIntoSource.getClass().isAnnotationPresent(AspectAgnostic.class)) {
                     overlayImage = ImageUtils.copyScaled(fadeIntoSource.get(), targetSize, quality);
+                } else if (fadeIntoSource instanceof SizedImageSource) {
+                    overlayImage = fetch(fadeIntoSource, targetSize);
                 } else {
                     overlayImage = ImageUtils.copyAspectScaled(fadeIntoSource.get(), targetSize, quality);
                 }
@@ -167,4 +238,93 @@ public class CrossFadeProxySource extends ScaledSource {
     public double getFps() {
         return stats.getRate();
     }
+
+    private void drawBase(Graphics2D g, Optional<BufferedImage> img, Dimension targetSize, Optional<Scalr.Method> quality) {
+        if (getSource().getClass().isAnnotationPresent(AspectAgnostic.class)) {
+            ImageUtils.drawIgnoringAspect(g, img, targetSize, quality);
+        } else {
+            ImageUtils.drawAspectScaled(g, img, targetSize, quality);
+        }
+    }
+
+    /**
+     * The scaled base source and the finished composite at one size, with
+     * what each overlay looked like when it was last composited.
+     */
+    private class Layers {
+
+        private final Dimension size;
+        private final BufferedImage base;
+        private final BufferedImage composite;
+        private FrameKey baseKey = FrameKey.UNVERSIONED;
+        private long overlaysSeen = -1;
+        private final Map<ImageOverlay, Drawn> drawn = new IdentityHashMap<>();
+
+        Layers(Dimension size) {
+            this.size = size;
+            this.base = new BufferedImage(Math.max(size.width, 1), Math.max(size.height, 1), BufferedImage.TYPE_INT_RGB);
+            this.composite = new BufferedImage(base.getWidth(), base.getHeight(), BufferedImage.TYPE_INT_RGB);
+        }
+
+        synchronized void draw(Graphics2D g, Optional<Scalr.Method> quality) {
+            Rectangle dirty = null;
+            FrameKey key = CrossFadeProxySource.super.getFrameKey();
+            if (!key.equals(baseKey)) {
+                Graphics2D b = base.createGraphics();
+                drawBase(b, fetch(getSource(), size), size, quality);
+                b.dispose();
+                baseKey = key;
+                dirty = new Rectangle(size);
+            }
+            List<ImageOverlay> overlays;
+            synchronized (postScaleOverlays) {
+                overlays = new ArrayList<>(postScaleOverlays);
+                if (overlaysSeen != overlayChanges) {
+                    overlaysSeen = overlayChanges;
+                    dirty = new Rectangle(size);
+                    drawn.keySet().retainAll(overlays);
+                }
+            }
+            for (ImageOverlay overlay : overlays) {
+                long frameNumber = overlay.getFrameNumber();
+                Rectangle bounds = overlay.getBounds(size);
+                Drawn last = drawn.get(overlay);
+                if (last == null || frameNumber == ImageSource.UNVERSIONED
+                        || frameNumber != last.frameNumber || !bounds.equals(last.bounds)) {
+                    dirty = union(dirty, bounds);
+                    if (last != null) {
+                        dirty = union(dirty, last.bounds);
+                    }
+                    drawn.put(overlay, new Drawn(frameNumber, bounds));
+                }
+            }
+            if (dirty != null) {
+                Graphics2D c = composite.createGraphics();
+                c.clip(dirty);
+                c.drawImage(base, 0, 0, null);
+                for (ImageOverlay overlay : overlays) {
+                    if (drawn.get(overlay).bounds.intersects(dirty)) {
+                        overlay.apply(c, size);
+                    }
+                }
+                c.dispose();
+            }
+            g.drawImage(composite, 0, 0, null);
+        }
+
+        private Rectangle union(Rectangle dirty, Rectangle bounds) {
+            return dirty == null ? new Rectangle(bounds) : dirty.union(bounds);
+        }
+    }
+
+    private static class Drawn {
+
+        final long frameNumber;
+        final Rectangle bounds;
+
+        Drawn(long frameNumber, Rectangle bounds) {
+            this.frameNumber = frameNumber;
+            this.bounds = bounds;
+        }
+    }
 }
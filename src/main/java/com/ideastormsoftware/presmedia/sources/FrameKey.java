@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.sources;
+
+import java.util.Arrays;
+
+/**
+ * Identifies what a composed picture shows, as the frame numbers of
+ * everything drawn into it. Keys are compared part by part, so two keys are
+ * only equal when every part matches. A key with any unversioned part is
+ * unversioned, and equal to nothing.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public final class FrameKey {
+
+    public static final FrameKey UNVERSIONED = new FrameKey(new long[0]);
+
+    private final long[] parts;
+
+    private FrameKey(long[] parts) {
+        this.parts = parts;
+    }
+
+    /**
+     * @param parts frame numbers or change counts, any of which may be
+     * {@link ImageSource#UNVERSIONED}
+     */
+    public static FrameKey of(long... parts) {
+        for (long part : parts) {
+            if (part == ImageSource.UNVERSIONED) {
+                return UNVERSIONED;
+            }
+        }
+        return new FrameKey(parts.clone());
+    }
+
+    /**
+     * @return this key with another part appended
+     */
+    public FrameKey with(long part) {
+        if (this == UNVERSIONED || part == ImageSource.UNVERSIONED) {
+            return UNVERSIONED;
+        }
+        long[] extended = Arrays.copyOf(parts, parts.length + 1);
+        extended[parts.length] = part;
+        return new FrameKey(extended);
+    }
+
+    public boolean isVersioned() {
+        return this != UNVERSIONED;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == UNVERSIONED || other == UNVERSIONED || !(other instanceof FrameKey)) {
+            return false;
+        }
+        return Arrays.equals(parts, ((FrameKey) other).parts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(parts);
+    }
+
+    @Override
+    public String toString() {
+        return isVersioned() ? Arrays.toString(parts) : "unversioned";
+    }
+}
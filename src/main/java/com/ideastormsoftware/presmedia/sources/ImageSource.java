@@ -21,5 +21,19 @@ import java.util.function.Supplier;
 
 public interface ImageSource extends Supplier<Optional<BufferedImage>> {
 
+    /**
+     * Frame number of a source that can't tell when its picture changes, so
+     * it has to be redrawn every time.
+     */
+    public static final long UNVERSIONED = -1;
+
     public double getFps();
+
+    /**
+     * @return a number that increases whenever the picture changes, or
+     * {@link #UNVERSIONED}
+     */
+    public default long getFrameNumber() {
+        return UNVERSIONED;
+    }
 }
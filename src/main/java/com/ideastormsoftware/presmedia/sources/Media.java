@@ -27,24 +27,43 @@ import com.ideastormsoftware.presmedia.sources.media.PlanarConverter;
 import com.ideastormsoftware.presmedia.sources.media.InterleavedDblConverter;
 import com.ideastormsoftware.presmedia.sources.media.PlanarIntConverter;
 import com.ideastormsoftware.presmedia.sources.media.InterleavedIntConverter;
+import com.ideastormsoftware.presmedia.sources.media.KeyframeIndex;
 import com.ideastormsoftware.presmedia.sources.media.AudioConverter;
+import com.ideastormsoftware.presmedia.sources.media.AudioOutput;
 import com.ideastormsoftware.presmedia.sources.media.PlanarShortConverter;
+import com.ideastormsoftware.presmedia.sources.media.PresentationClock;
+import com.ideastormsoftware.presmedia.sources.media.DecoderThreading;
+import com.ideastormsoftware.presmedia.sources.media.FramePool;
+import com.ideastormsoftware.presmedia.sources.media.FrameQueueSizer;
+import com.ideastormsoftware.presmedia.sources.media.PictureScaler;
+import com.ideastormsoftware.presmedia.sources.media.PooledFrame;
+import com.ideastormsoftware.presmedia.sources.media.SeekMode;
 import com.ideastormsoftware.presmedia.util.FrameCoordinator;
+import com.ideastormsoftware.presmedia.util.ImageUtils;
+import com.ideastormsoftware.presmedia.util.RingBuffer;
+import com.ideastormsoftware.presmedia.util.RollingAverage;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.FileNotFoundException;
 import static java.lang.Thread.currentThread;
 import static java.lang.Thread.interrupted;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.DataLine;
 import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.SourceDataLine;
 import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.avcodec.AVPacket;
+import org.bytedeco.javacpp.avutil.AVFrame;
+import static org.bytedeco.javacpp.avcodec.AVDISCARD_DEFAULT;
+import static org.bytedeco.javacpp.avcodec.AVDISCARD_NONKEY;
+import static org.bytedeco.javacpp.avcodec.AVDISCARD_NONREF;
 import static org.bytedeco.javacpp.avutil.AV_SAMPLE_FMT_DBL;
 import static org.bytedeco.javacpp.avutil.AV_SAMPLE_FMT_DBLP;
 import static org.bytedeco.javacpp.avutil.AV_SAMPLE_FMT_FLT;
@@ -58,40 +77,126 @@ import static org.bytedeco.javacpp.avutil.AV_SAMPLE_FMT_U8;
 import static org.bytedeco.javacpp.avutil.AV_SAMPLE_FMT_U8P;
 import static org.bytedeco.javacpp.avutil.av_get_sample_fmt_name;
 
-public class Media implements ImageSource, CleanCloseable, Startable, Pauseable {
+public class Media implements SizedImageSource, CleanCloseable, Startable, Pauseable, AudibleSource {
 
-    private SourceDataLine mLine;
+    private volatile AudioOutput.Channel audioChannel;
+    private volatile float audioGain = 1;
+    private volatile boolean audioResampling = true;
+    private volatile boolean deferredConversion = true;
+    //the size the picture is shown at; frames are decoded no larger than this
+    private volatile Supplier<Dimension> targetSize = () -> null;
+    //one per size the picture is drawn at, converting the shown frame when it changes
+    private static final int MAX_SCALERS = 4;
+    private final Map<Dimension, PictureScaler> scalers = new LinkedHashMap<Dimension, PictureScaler>(MAX_SCALERS * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Dimension, PictureScaler> eldest) {
+            if (size() > MAX_SCALERS) {
+                //a size no painter has asked for lately, such as from before a resize
+                eldest.getValue().release();
+                return true;
+            }
+            return false;
+        }
+    };
     private AudioConverter converter;
     private AudioFormat audioFormat;
     private final Runnable callback;
+    private final DecoderThreading decoderThreading;
+    private final int decoderThreads;
+    private volatile int decoderDelay = 0;
     private volatile boolean paused = false;
-    private volatile boolean postSeekBuffer = false;
     private volatile int minimumSamples = 0;
     private volatile int minimumFrames = 0;
     private static final int QUEUE_CAPACITY = 128;
-    private final Queue<BufferedImage> imageBuffer = new ConcurrentLinkedQueue<>();
-    private final Queue<DataFrame<byte[]>> samples = new ConcurrentLinkedQueue<>();
-    private final Queue<DataFrame<BufferedImage>> frames = new ConcurrentLinkedQueue<>();
-    private final AtomicInteger sampleQueueSize = new AtomicInteger(0);
-    private final AtomicInteger frameQueueSize = new AtomicInteger(0);
+    //hard cap on queued frames; within it the frame pool is sized from the memory budget
+    private static final int FRAME_QUEUE_CAPACITY = 240;
+    //pooled frames beyond the queue: the one on screen, one still being painted and the one being decoded
+    private static final int FRAME_POOL_HEADROOM = 3;
+    public static final long DEFAULT_VIDEO_BUFFER_MICROS = 1_000_000;
+    /**
+     * Per media, so two while a playlist hands over. Deferred frames are
+     * native memory outside the heap, so this is a fixed limit rather than a
+     * share of -Xmx; about 64 queued 1080p pictures. Overridden with
+     * -Dpresmedia.videoMemoryBudget=bytes.
+     */
+    /**
+     * Video decoder threads, zero for one per core. Overridden with
+     * -Dpresmedia.decoderThreads=count.
+     */
+    public static final int DEFAULT_DECODER_THREADS = Integer.getInteger("presmedia.decoderThreads", 0);
+    public static final long DEFAULT_VIDEO_MEMORY_BUDGET = Long.getLong("presmedia.videoMemoryBudget", 192L << 20);
+    private volatile long videoBufferMicros = DEFAULT_VIDEO_BUFFER_MICROS;
+    private volatile long videoMemoryBudget = DEFAULT_VIDEO_MEMORY_BUDGET;
+    private volatile FrameQueueSizer frameQueueSizer;
+    private static final int PACKET_QUEUE_CAPACITY = 256;
+    private static final int PACKET_POOL_CAPACITY = PACKET_QUEUE_CAPACITY * 2 + 4;
+    //upper bound on any blocking wait, so cancel and seek requests are always noticed
+    private static final long MAX_WAIT_MILLIS = 50;
+    //decoded pictures, refcounted so a painter can hold one past its replacement; created once the size is known
+    private volatile FramePool framePool;
+    private final RingBuffer<DataFrame<byte[]>> samples = new RingBuffer<>(QUEUE_CAPACITY);
+    //played sample frames handed back to the audio decoder, buffers and all
+    private final RingBuffer<DataFrame<byte[]>> samplePool = new RingBuffer<>(QUEUE_CAPACITY + 2);
+    private final RingBuffer<PooledFrame> frames = new RingBuffer<>(FRAME_QUEUE_CAPACITY);
+    private final RingBuffer<Packet> videoPackets = new RingBuffer<>(PACKET_QUEUE_CAPACITY);
+    private final RingBuffer<Packet> audioPackets = new RingBuffer<>(PACKET_QUEUE_CAPACITY);
+    //each decoder hands its used packets back to the demuxer through its own pool
+    private final RingBuffer<Packet> videoPacketPool = new RingBuffer<>(PACKET_POOL_CAPACITY);
+    private final RingBuffer<Packet> audioPacketPool = new RingBuffer<>(PACKET_POOL_CAPACITY);
+    private final Object pauseLock = new Object();
+    //bumped by the demux thread on every seek; anything tagged with an older serial is stale
+    private volatile int serial = 0;
+    //frames and samples queued under the newest serial seen, serial in the high half
+    private final AtomicLong framesQueued = new AtomicLong();
+    private final AtomicLong samplesQueued = new AtomicLong();
+    private volatile long seekTarget = 0;
+    private final AtomicLong pendingSeek = new AtomicLong(-1);
+    private volatile Thread seekWaiter;
+    private volatile KeyframeIndex keyframes;
+    private final AtomicBoolean keyframesRequested = new AtomicBoolean();
+    private volatile Runnable endingCallback;
+    private volatile long endingLead;
+    private volatile boolean videoDrained = true;
+    private volatile boolean audioDrained = true;
     private FFmpegFrameGrabber ffmpeg;
 
     private final String sourceFile;
-    private volatile BufferedImage currentImage = null;
-    private final Stats fpsStats = new Stats();
+    private volatile PooledFrame currentFrame = null;
+    private final Object currentFrameLock = new Object();
+    //eager frames go back to the pool while painters still draw them, so painters are handed copies
+    private final BufferedImage[] presented = new BufferedImage[2];
+    private int presentedIndex = 0;
+    private PooledFrame presentedFrame;
+    private long presentedGeneration;
+    private volatile long frameNumber = 0;
+    private final PresentationClock clock = new PresentationClock();
+    private volatile long avDrift = 0;
+    private volatile int droppedFrames = 0;
+    private volatile int skippedFrames = 0;
+    //video lagging the master clock by more than this (usec) starts shedding frames in the decoder
+    public static final long DEFAULT_LATE_FRAME_THRESHOLD = 100_000;
+    private volatile long lateFrameThreshold = DEFAULT_LATE_FRAME_THRESHOLD;
 
     private static void log(String format, Object... params) {
         System.out.println(String.format("%d %s - %s", System.currentTimeMillis(),
                 Thread.currentThread().getName(), String.format(format, params)));
     }
-    private volatile long mediaPosition;
     private long mediaDuration;
     private double frameRate;
     private volatile long videoPosition;
 
     public Media(String sourceFile, Runnable callback) {
+        this(sourceFile, callback, DecoderThreading.AUTO, DEFAULT_DECODER_THREADS);
+    }
+
+    /**
+     * @param decoderThreads video decoder threads, zero for one per core
+     */
+    public Media(String sourceFile, Runnable callback, DecoderThreading decoderThreading, int decoderThreads) {
         this.sourceFile = sourceFile;
         this.callback = callback;
+        this.decoderThreading = decoderThreading;
+        this.decoderThreads = decoderThreads;
     }
 
     public String getSourceFile() {
@@ -100,7 +205,63 @@ public class Media implements ImageSource, CleanCloseable, Startable, Pauseable
 
     @Override
     public void start(Runnable startedCallback) throws InterruptedException {
-        openSource(startedCallback);
+        GrabberThread demux = grabber;
+        if (demux != null && demux.holding) {
+            demux.release(startedCallback);
+        } else {
+            openSource(startedCallback, false);
+        }
+    }
+
+    /**
+     * Resamples audio to the output format in libswresample rather than
+     * converting it in Java. On by default; must be set before starting.
+     */
+    public void setAudioResampling(boolean audioResampling) {
+        this.audioResampling = audioResampling;
+    }
+
+    /**
+     * Queues decoded pictures in the decoder's YUV format and converts only
+     * the frames shown, straight to the size they are drawn at. The queued
+     * pictures are kept in native slabs, so the heap holds only the image
+     * being presented and a long queue doesn't lengthen garbage collection.
+     * Off, each frame is converted to a heap image as it is decoded. On by
+     * default; must be set before starting.
+     */
+    public void setDeferredConversion(boolean deferredConversion) {
+        this.deferredConversion = deferredConversion;
+    }
+
+    /**
+     * Decodes frames fitted within the given size rather than at the
+     * stream's, such as the projector's render size. It is checked for every
+     * frame, so frames follow the display when it is resized. A null size
+     * decodes at full size.
+     */
+    public void setTargetSize(Supplier<Dimension> targetSize) {
+        this.targetSize = targetSize != null ? targetSize : () -> null;
+    }
+
+    /**
+     * Opens the media and buffers the start of it without playing, so a later
+     * {@link #start(Runnable)} begins playback without waiting on FFmpeg. The
+     * first frame is shown as soon as it is buffered.
+     */
+    public void prepare() {
+        openSource(null, true);
+    }
+
+    /**
+     * Registers a one-shot callback for when playback gets within the given
+     * lead of the end, or the whole file has been read, whichever is first.
+     * Runs on the demux thread, so it must not block.
+     *
+     * @param lead in microseconds
+     */
+    public void setEndingCallback(Runnable endingCallback, long lead) {
+        this.endingLead = lead;
+        this.endingCallback = endingCallback;
     }
 
     @Override
@@ -110,16 +271,147 @@ public class Media implements ImageSource, CleanCloseable, Startable, Pauseable
 
     @Override
     public Optional<BufferedImage> get() {
-        return Optional.ofNullable(currentImage);
+        return currentImage(null);
+    }
+
+    @Override
+    public Optional<BufferedImage> get(Dimension targetSize) {
+        return currentImage(targetSize);
+    }
+
+    /**
+     * @param targetSize the size to fit a deferred picture to, or null for
+     * its decoded size
+     */
+    private Optional<BufferedImage> currentImage(Dimension targetSize) {
+        PooledFrame frame = acquireCurrentFrame();
+        if (frame == null) {
+            return Optional.empty();
+        }
+        try {
+            if (frame.image != null) {
+                return Optional.of(copyOf(frame));
+            }
+            AVFrame picture = frame.getPicture();
+            if (picture == null) {
+                return Optional.empty();
+            }
+            Dimension size = targetSize == null ? new Dimension(picture.width(), picture.height())
+                    : ImageUtils.aspectScaledSize(picture.width(), picture.height(), targetSize.width, targetSize.height);
+            if (size.width < 1 || size.height < 1) {
+                return Optional.empty();
+            }
+            PictureScaler scaler;
+            synchronized (scalers) {
+                scaler = scalers.get(size);
+                if (scaler == null) {
+                    scaler = new PictureScaler(size.width, size.height);
+                    scalers.put(size, scaler);
+                }
+            }
+            return Optional.ofNullable(scaler.convert(frame));
+        } catch (AvException e) {
+            e.printStackTrace();
+            return Optional.empty();
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * @return a copy of the frame's image, left intact until the copy after
+     * next; the same frame is only copied once
+     */
+    private BufferedImage copyOf(PooledFrame frame) {
+        synchronized (presented) {
+            if (frame == presentedFrame && frame.getGeneration() == presentedGeneration) {
+                return presented[presentedIndex];
+            }
+            BufferedImage source = frame.image;
+            int next = 1 - presentedIndex;
+            BufferedImage copy = presented[next];
+            if (copy == null || copy.getWidth() != source.getWidth() || copy.getHeight() != source.getHeight()) {
+                copy = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+                presented[next] = copy;
+            }
+            byte[] from = ((DataBufferByte) source.getRaster().getDataBuffer()).getData();
+            byte[] to = ((DataBufferByte) copy.getRaster().getDataBuffer()).getData();
+            System.arraycopy(from, 0, to, 0, from.length);
+            presentedIndex = next;
+            presentedFrame = frame;
+            presentedGeneration = frame.getGeneration();
+            return copy;
+        }
+    }
+
+    private void releaseScalers() {
+        synchronized (scalers) {
+            for (PictureScaler scaler : scalers.values()) {
+                scaler.release();
+            }
+            scalers.clear();
+        }
+    }
+
+    /**
+     * Takes a reference to the frame on screen, so its image isn't decoded
+     * over while the caller still uses it.
+     *
+     * @return the current frame, which the caller must release, or null
+     */
+    public PooledFrame acquireCurrentFrame() {
+        synchronized (currentFrameLock) {
+            PooledFrame frame = currentFrame;
+            return frame == null ? null : frame.retain();
+        }
     }
 
     @Override
     public void setPaused(boolean paused) {
-        this.paused = paused;
+        synchronized (pauseLock) {
+            this.paused = paused;
+            if (paused) {
+                clock.stop();
+            } else {
+                clock.start();
+            }
+        }
+        wakePresenters();
+    }
+
+    /**
+     * Starts the stopped clock at the given position when playback first
+     * begins, unless it has been paused meanwhile.
+     */
+    private void startClock(long position) {
+        synchronized (pauseLock) {
+            if (!paused && !clock.isRunning()) {
+                clock.set(position);
+                clock.start();
+            }
+        }
     }
 
     public void togglePaused() {
-        paused = !paused;
+        setPaused(!paused);
+    }
+
+    private void wakePresenters() {
+        synchronized (pauseLock) {
+            pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks a presentation thread while paused, unless a seek lands in the
+     * meantime and there is a new frame position to show.
+     */
+    private void awaitPlayback(int handledSerial) throws InterruptedException {
+        synchronized (pauseLock) {
+            while (paused && handledSerial == serial) {
+                pauseLock.wait();
+            }
+        }
     }
 
     public boolean isPaused() {
@@ -127,31 +419,101 @@ public class Media implements ImageSource, CleanCloseable, Startable, Pauseable
     }
 
     public void seekTo(long position) throws AvException, InterruptedException {
-        if (position >= mediaDuration) {
+        seekTo(position, SeekMode.ACCURATE);
+    }
+
+    /**
+     * Seeks and waits until enough has been decoded at the new position to
+     * resume playback. The keyframe modes are much faster on long-GOP files
+     * since nothing between the keyframe and the target is decoded.
+     */
+    public void seekTo(long position, SeekMode mode) throws AvException, InterruptedException {
+        position = mode.resolve(position, keyframes);
+        GrabberThread demux = grabber;
+        if (position >= mediaDuration || demux == null) {
             return;
         }
+        if (minimumFrames > 0) {
+            indexKeyframes();
+        }
         boolean pauseState = paused;
         setPaused(true);
-        TimeUnit.MILLISECONDS.sleep(50);
-        ffmpeg.setTimestamp(position);
-        frameQueueSize.set(0);
-        if (currentImage != null) {
-            imageBuffer.offer(currentImage);
-            currentImage = null;
-        }
-        while (!frames.isEmpty()) {
-            imageBuffer.offer(frames.poll().data);
-        }
-        sampleQueueSize.set(0);
-        samples.clear();
-        postSeekBuffer = true;
-        do {
-            TimeUnit.MILLISECONDS.sleep(2);
-        } while (frameQueueSize.get() < minimumFrames && sampleQueueSize.get() < minimumSamples);
-        updatePausedImage();
+        seekWaiter = currentThread();
+        try {
+            pendingSeek.set(position);
+            demux.wakeUp();
+            while (pendingSeek.get() >= 0 && demux.isAlive()) {
+                park();
+            }
+            //whatever is still queued from before the seek doesn't count
+            int seekSerial = serial;
+            while ((queuedSince(framesQueued, seekSerial) < minimumFrames || queuedSince(samplesQueued, seekSerial) < minimumSamples)
+                    && !(videoDrained && audioDrained) && demux.isAlive()) {
+                park();
+            }
+        } finally {
+            seekWaiter = null;
+        }
         setMediaPosition(position);
         setPaused(pauseState);
-        postSeekBuffer = false;
+    }
+
+    /**
+     * Starts indexing the keyframes the first time they are needed, rather
+     * than on open, so the scan doesn't compete for the disk with playback.
+     */
+    private void indexKeyframes() {
+        if (!keyframesRequested.compareAndSet(false, true)) {
+            return;
+        }
+        Thread indexer = new Thread(() -> {
+            try {
+                keyframes = KeyframeIndex.forFile(getSourceFile());
+                log("%d keyframes indexed", keyframes.size());
+            } catch (Exception e) {
+                log("keyframe index unavailable: %s", e.getMessage());
+            }
+        }, "KeyframeIndexer");
+        indexer.setDaemon(true);
+        indexer.setPriority(Thread.MIN_PRIORITY);
+        indexer.start();
+    }
+
+    private static void countQueued(AtomicLong counter, int queuedSerial) {
+        counter.updateAndGet(tally -> {
+            int countedSerial = (int) (tally >>> 32);
+            if (countedSerial == queuedSerial) {
+                return tally + 1;
+            }
+            //a decoder still finishing an older serial must not reset a newer count
+            return queuedSerial - countedSerial > 0 ? ((long) queuedSerial << 32) | 1 : tally;
+        });
+    }
+
+    private static int queuedSince(AtomicLong counter, int sinceSerial) {
+        long tally = counter.get();
+        return (int) (tally >>> 32) == sinceSerial ? (int) tally : 0;
+    }
+
+    private void park() throws InterruptedException {
+        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MILLIS));
+        if (interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * @return the number of frames held back inside the threaded video
+     * decoder, zero until the media has been opened
+     */
+    public int getDecoderDelay() {
+        return decoderDelay;
     }
 
     public long getMediaDuration() {
@@ -159,105 +521,100 @@ public class Media implements ImageSource, CleanCloseable, Startable, Pauseable
     }
 
     public int getAudioBufferLoad() {
-        return Math.min(sampleQueueSize.get() * 100 / QUEUE_CAPACITY, 100);
+        return Math.min(samples.size() * 100 / samples.capacity(), 100);
     }
 
     public int getVideoBufferLoad() {
-        return Math.min(frameQueueSize.get() * 100 / QUEUE_CAPACITY, 100);
+        FramePool pool = framePool;
+        int capacity = pool == null ? frames.capacity() : Math.max(pool.capacity() - FRAME_POOL_HEADROOM, 1);
+        return Math.min(frames.size() * 100 / capacity, 100);
     }
 
-    private void openJavaSound(int sampleFormat, int audioChannels, float sampleRate) throws FileNotFoundException {
-        int bitsPerSample;
-        boolean signed;
+    private static AudioConverter converterFor(int sampleFormat, int audioChannels) {
         switch (sampleFormat) {
             case AV_SAMPLE_FMT_NONE:
                 throw new IllegalStateException("no sample format");
             case AV_SAMPLE_FMT_U8:
-                bitsPerSample = 8;
-                converter = new InterleavedConverter();
-                signed = false;
-                break;
+                return new InterleavedConverter();
             case AV_SAMPLE_FMT_S16:
-                bitsPerSample = 16;
-                converter = new InterleavedShortConverter();
-                signed = true;
-                break;
+                return new InterleavedShortConverter();
             case AV_SAMPLE_FMT_S32:
-                bitsPerSample = 16;
-                converter = new InterleavedIntConverter();
-                signed = true;
-                break;
+                return new InterleavedIntConverter();
             case AV_SAMPLE_FMT_FLT:
-                bitsPerSample = 16;
-                converter = new InterleavedFltConverter();
-                signed = true;
-                break;
+                return new InterleavedFltConverter();
             case AV_SAMPLE_FMT_S16P:
-                bitsPerSample = 16;
-                converter = new PlanarShortConverter(audioChannels);
-                signed = true;
-                break;
+                return new PlanarShortConverter(audioChannels);
             case AV_SAMPLE_FMT_S32P:
-                bitsPerSample = 32;
-                converter = new PlanarIntConverter(audioChannels);
-                signed = true;
-                break;
+                return new PlanarIntConverter(audioChannels);
             case AV_SAMPLE_FMT_FLTP:
-                bitsPerSample = 16;
-                converter = new PlanarFltConverter(audioChannels);
-                signed = true;
-                break;
+                return new PlanarFltConverter(audioChannels);
             case AV_SAMPLE_FMT_U8P:
-                bitsPerSample = 8;
-                converter = new PlanarConverter(bitsPerSample, audioChannels);
-                signed = false;
-                break;
+                return new PlanarConverter(8, audioChannels);
             case AV_SAMPLE_FMT_DBL:
-                bitsPerSample = 16;
-                converter = new InterleavedDblConverter();
-                signed = true;
-                break;
+                return new InterleavedDblConverter();
             case AV_SAMPLE_FMT_DBLP:
-                bitsPerSample = 16;
-                converter = new PlanarDblConverter(audioChannels);
-                signed = true;
-                break;
+                return new PlanarDblConverter(audioChannels);
             default:
+                return null;
+        }
+    }
+
+    private void openJavaSound(int sampleFormat, int audioChannels, float sampleRate) throws FileNotFoundException {
+        if (ffmpeg.isAudioResampling()) {
+            //libswresample already produced interleaved S16, it only needs copying out
+            converter = new InterleavedConverter(16, true);
+        } else {
+            converter = converterFor(sampleFormat, audioChannels);
+            if (converter == null) {
                 log("No support for %d %s", sampleFormat, bytePointerToString(av_get_sample_fmt_name(sampleFormat)));
                 return;
+            }
         }
         audioFormat = new AudioFormat(
                 sampleRate,
-                bitsPerSample,
+                converter.getSampleSizeInBits(),
                 audioChannels,
-                signed,
+                converter.isSigned(),
                 false);
         if (audioChannels > 0) {
-            DataLine.Info info = new DataLine.Info(SourceDataLine.class, audioFormat);
             try {
-                mLine = (SourceDataLine) AudioSystem.getLine(info);
-                mLine.open(audioFormat);
-                mLine.start();
+                audioChannel = AudioOutput.getInstance().openChannel(audioFormat, audioGain);
             } catch (LineUnavailableException e) {
                 throw new RuntimeException("could not open audio line");
             }
         }
     }
 
-    private void closeJavaSound() {
-        if (mLine != null) {
-            mLine.drain();
-            mLine.close();
-            mLine = null;
+    /**
+     * @param finish let the queued audio play out rather than cutting it off
+     */
+    private void closeJavaSound(boolean finish) {
+        AudioOutput.Channel channel = audioChannel;
+        if (channel != null) {
+            if (finish) {
+                channel.finish();
+            } else {
+                channel.close();
+            }
+            audioChannel = null;
+        }
+    }
+
+    @Override
+    public void fadeAudio(float gain, double seconds) {
+        audioGain = gain;
+        AudioOutput.Channel channel = audioChannel;
+        if (channel != null) {
+            channel.fadeTo(gain, seconds);
         }
     }
 
     private GrabberThread grabber = null;
 
-    private void openSource(Runnable startedCallback) {
+    private void openSource(Runnable startedCallback, boolean holding) {
         if (grabber == null) {
             log("initializing new processing thread");
-            grabber = new GrabberThread(startedCallback);
+            grabber = new GrabberThread(startedCallback, holding);
             grabber.start();
             log("processing thread %s started", grabber.getName());
 
@@ -275,7 +632,29 @@ public class Media implements ImageSource, CleanCloseable, Startable, Pauseable
             e.printStackTrace();
         } finally {
             grabber = null;
-            currentImage = null;
+            replaceCurrentFrame(null);
+            releaseScalers();
+        }
+    }
+
+    private void applyTargetSize() {
+        Dimension size = targetSize.get();
+        if (size == null) {
+            ffmpeg.setOutputSize(0, 0);
+        } else {
+            ffmpeg.setOutputSize(size.width, size.height);
+        }
+    }
+
+    private void replaceCurrentFrame(PooledFrame frame) {
+        PooledFrame previous;
+        synchronized (currentFrameLock) {
+            previous = currentFrame;
+            currentFrame = frame;
+            frameNumber++;
+        }
+        if (previous != null) {
+            previous.release(); //recycle it!
         }
     }
 
@@ -290,25 +669,117 @@ public class Media implements ImageSource, CleanCloseable, Startable, Pauseable
         return frameRate;
     }
 
+    /**
+     * Stays the same while paused, so painters can skip redrawing.
+     */
+    @Override
+    public long getFrameNumber() {
+        return frameNumber;
+    }
+
     public long getVideoPosition() {
         return videoPosition;
     }
 
+    /**
+     * @return the master clock position: the audio being heard when there is
+     * audio, otherwise the video schedule
+     */
     public long getMediaPosition() {
-        return mediaPosition;
+        return clock.get();
     }
 
     private void setMediaPosition(long position) {
-        mediaPosition = position;
+        clock.set(position);
+    }
+
+    /**
+     * @return how late video frames are being shown against the master clock,
+     * averaged over recent frames, in microseconds
+     */
+    public long getAvDrift() {
+        return avDrift;
+    }
+
+    /**
+     * @return the number of frames dropped for being too late to show,
+     * whether they were converted first or not
+     */
+    public int getDroppedFrames() {
+        return droppedFrames + skippedFrames;
+    }
+
+    public long getLateFrameThreshold() {
+        return lateFrameThreshold;
     }
 
+    /**
+     * Once video falls this far behind the master clock, late frames are
+     * dropped before conversion and the decoder is told to skip non-reference
+     * frames, then everything but keyframes at four times the threshold.
+     *
+     * @param lateFrameThreshold in microseconds
+     */
+    public void setLateFrameThreshold(long lateFrameThreshold) {
+        this.lateFrameThreshold = lateFrameThreshold;
+    }
+
+    /**
+     * Caps the memory queued video frames may take, at whatever size they
+     * are decoded. Defaults to {@link #DEFAULT_VIDEO_MEMORY_BUDGET}.
+     *
+     * @param videoMemoryBudget in bytes
+     */
+    public void setVideoMemoryBudget(long videoMemoryBudget) {
+        this.videoMemoryBudget = videoMemoryBudget;
+        FrameQueueSizer sizer = frameQueueSizer;
+        if (sizer != null) {
+            sizer.setMemoryBudget(videoMemoryBudget);
+        }
+    }
+
+    /**
+     * Sets how much video to keep decoded ahead while decoding keeps up. The
+     * queue grows past this when the decoder stalls, within the memory
+     * budget.
+     *
+     * @param videoBufferMicros in microseconds
+     */
+    public void setVideoBufferMicros(long videoBufferMicros) {
+        this.videoBufferMicros = videoBufferMicros;
+        FrameQueueSizer sizer = frameQueueSizer;
+        if (sizer != null) {
+            sizer.setBufferMicros(videoBufferMicros);
+        }
+    }
+
+    /**
+     * Reads packets and hands them to the decoder threads, so a slow video
+     * decode never holds up audio decoding. Also owns the demuxer for seeks.
+     */
     private class GrabberThread extends Thread {
 
-        private final Runnable startedCallback;
+        private volatile Runnable startedCallback;
+        //prepared but not yet started: buffer, but don't present
+        volatile boolean holding;
+        private final VideoThread videoThread = new VideoThread();
+        private final AudioThread audioThread = new AudioThread();
+        private final VideoDecodeThread videoDecoder = new VideoDecodeThread();
+        private final AudioDecodeThread audioDecoder = new AudioDecodeThread();
+        private boolean started = false;
+        private boolean firstFrameShown = false;
+        private Packet spare;
+
+        public GrabberThread(Runnable startedCallback, boolean holding) {
+            super("DemuxThread");
+            this.startedCallback = startedCallback;
+            this.holding = holding;
+        }
 
-        public GrabberThread(Runnable startedCallback) {
-            super("FrameGrabThread");
+        void release(Runnable startedCallback) {
             this.startedCallback = startedCallback;
+            holding = false;
+            wakeUp();
         }
 
         private volatile boolean canceled = false;
@@ -317,88 +788,117 @@ public class Media implements ImageSource, CleanCloseable, Startable, Pauseable
         public void run() {
             log("Media processing thread initialized");
             boolean normalExit = false;
-            VideoThread videoThread = new VideoThread();
-            AudioThread audioThread = new AudioThread();
             try {
                 try {
                     ffmpeg = FFmpegFrameGrabber.createDefault(getSourceFile());
+                    ffmpeg.setDecoderThreading(decoderThreading);
+                    ffmpeg.setDecoderThreads(decoderThreads);
+                    ffmpeg.setAudioResampling(audioResampling);
+                    ffmpeg.setDeferredConversion(deferredConversion);
                     try {
                         ffmpeg.start();
                         mediaDuration = ffmpeg.getLengthInTime();
-                        boolean started = false;
-                        minimumFrames = ffmpeg.getVideoBitrate() < 0 ? 0 : 5;
+                        decoderDelay = ffmpeg.getDecoderDelay();
+                        log("video decoder delay: %d frames", decoderDelay);
+                        //a threaded decoder hands frames over in bursts, so buffer past its delay before playback starts
+                        minimumFrames = ffmpeg.getVideoBitrate() < 0 ? 0 : 5 + decoderDelay;
                         minimumSamples = ffmpeg.getAudioBitrate() < 0 ? 0 : 5;
                         if (minimumFrames > 0) {
                             Media.this.frameRate = ffmpeg.getFrameRate();
+                            applyTargetSize();
+                            FrameQueueSizer sizer = new FrameQueueSizer(minimumFrames, FRAME_QUEUE_CAPACITY, videoMemoryBudget, videoBufferMicros);
+                            sizer.setFrameFormat(ffmpeg.getOutputFrameBytes(), frameRate);
+                            frameQueueSizer = sizer;
+                            framePool = new FramePool(sizer.getCapacity() + FRAME_POOL_HEADROOM, FRAME_QUEUE_CAPACITY + FRAME_POOL_HEADROOM,
+                                    deferredConversion ? null : () -> new BufferedImage(ffmpeg.getOutputWidth(), ffmpeg.getOutputHeight(), BufferedImage.TYPE_3BYTE_BGR));
+                            log("video frame pool: %d frames of %d bytes", framePool.capacity(), ffmpeg.getOutputFrameBytes());
+                            ffmpeg.setFramePool(framePool, MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                            videoDrained = false;
+                            videoDecoder.start();
                         }
                         if (minimumSamples > 0) {
-                            openJavaSound(ffmpeg.getSampleFormat(), ffmpeg.getAudioChannels(), ffmpeg.getSampleRate());
+                            if (ffmpeg.isAudioResampling()) {
+                                openJavaSound(FFmpegFrameGrabber.RESAMPLED_SAMPLE_FORMAT, FFmpegFrameGrabber.RESAMPLED_CHANNELS, FFmpegFrameGrabber.RESAMPLED_SAMPLE_RATE);
+                            } else {
+                                openJavaSound(ffmpeg.getSampleFormat(), ffmpeg.getAudioChannels(), ffmpeg.getSampleRate());
+                            }
                             log("sound system initialized");
                         }
+                        if (converter == null) {
+                            minimumSamples = 0;
+                        } else {
+                            audioDrained = false;
+                            audioDecoder.start();
+                        }
+                        boolean endOfInput = false;
                         while (!canceled && !interrupted()) {
-                            if (paused && !postSeekBuffer) {
-                                TimeUnit.MILLISECONDS.sleep(2);
-                            } else {
-                                long start = System.nanoTime();
-                                Frame frame = ffmpeg.grabFrame();
-                                if (frame != null) {
-                                    if (frame.samples != null) {
-                                        sampleQueueSize.incrementAndGet();
-                                        samples.offer(new DataFrame(converter.prepareSamplesForPlayback(frame.samples), frame.timestamp, frame.duration));
-                                    }
-                                    if (frame.image != null) {
-                                        if (!started && imageBuffer.isEmpty()) {
-                                            for (int i = 0; i < QUEUE_CAPACITY; i++) {
-                                                imageBuffer.offer(new BufferedImage(frame.image.getWidth(), frame.image.getHeight(), BufferedImage.TYPE_3BYTE_BGR));
-                                            }
-                                        }
-                                        while (frameQueueSize.get() > QUEUE_CAPACITY * 0.9) //try to make sure we're not overwriting an image before it's rendered
-                                        {
-                                            TimeUnit.MILLISECONDS.sleep(2);
-                                        }
-                                        while (imageBuffer.isEmpty()) {
-                                            TimeUnit.MILLISECONDS.sleep(2);
-                                        }
-                                        BufferedImage image = imageBuffer.poll();
-                                        image.createGraphics().drawImage(frame.image, 0, 0, null);
-                                        frameQueueSize.incrementAndGet();
-                                        frames.offer(new DataFrame(image, frame.timestamp, frame.duration));
-                                    }
-                                } else {
+                            if (seekIfRequested()) {
+                                endOfInput = false;
+                                continue;
+                            }
+                            startPlaybackIfReady(endOfInput);
+                            signalEndingIfNear(endOfInput);
+                            if (endOfInput) {
+                                if (videoDrained && audioDrained && frames.isEmpty() && samples.isEmpty() && presentersFinished()) {
                                     normalExit = true;
                                     break;
                                 }
-                                if (frames.size() >= minimumFrames && samples.size() >= minimumSamples && !started) {
-                                    audioThread.start();
-                                    videoThread.start();
-                                    started = true;
-                                    if (startedCallback != null) {
-                                        startedCallback.run();
-                                    }
-                                }
+                                park();
+                                continue;
                             }
-                        }
-                        if (normalExit) {
-                            try {
-                                while (!samples.isEmpty() && !frames.isEmpty()) {
-                                    minimumFrames = frames.isEmpty() ? 0 : 1;
-                                    minimumSamples = samples.isEmpty() ? 0 : 1;
-                                    Thread.sleep(5);
+                            Packet packet = obtainPacket();
+                            if (!ffmpeg.readPacket(packet.packet)) {
+                                spare = packet;
+                                endOfInput = true;
+                                if (!videoDrained) {
+                                    queueEndOfStream(videoPackets);
                                 }
-                            } catch (InterruptedException e) {
-                                log("got interrupted waiting for buffers to flush");
-                                return;
+                                if (!audioDrained) {
+                                    queueEndOfStream(audioPackets);
+                                }
+                                continue;
+                            }
+                            packet.serial = serial;
+                            if (!videoDrained && ffmpeg.isVideoPacket(packet.packet)) {
+                                queuePacket(packet, videoPackets);
+                            } else if (!audioDrained && ffmpeg.isAudioPacket(packet.packet)) {
+                                queuePacket(packet, audioPackets);
+                            } else {
+                                FFmpegFrameGrabber.releasePacket(packet.packet);
+                                spare = packet;
                             }
                         }
                     } catch (InterruptedException e) {
                     } finally {
                         audioThread.canceled = true;
                         videoThread.canceled = true;
+                        videoDecoder.canceled = true;
+                        audioDecoder.canceled = true;
                         audioThread.interrupt();
                         videoThread.interrupt();
+                        videoDecoder.interrupt();
+                        audioDecoder.interrupt();
+                        try {
+                            //the decoders use the codec contexts that release() frees
+                            videoDecoder.join();
+                            audioDecoder.join();
+                            videoThread.join();
+                        } catch (InterruptedException e) {
+                            log("interrupted waiting for decoders to exit");
+                        }
+                        PooledFrame unshown;
+                        while ((unshown = frames.poll()) != null) {
+                            unshown.release();
+                        }
+                        if (framePool != null) {
+                            //frames still held, such as the one on screen, are freed as they are released
+                            framePool.close();
+                        }
+                        releaseAll(videoPackets);
+                        releaseAll(audioPackets);
                         ffmpeg.stop();
                         ffmpeg.release();
-                        closeJavaSound();
+                        closeJavaSound(normalExit);
                         log("processing thread terminated");
                     }
                 } catch (Throwable ex) {
@@ -406,15 +906,135 @@ public class Media implements ImageSource, CleanCloseable, Startable, Pauseable
                 }
             } finally {
                 log("exited thread lock - ready to go with the next thread");
-                frames.clear();
-                samples.clear();
-                imageBuffer.clear();
                 if (normalExit) {
                     callback.run();
                 }
             }
         }
 
+        /**
+         * Checks that the presenters are done with what they took off the
+         * queues, so the last frame gets its turn on screen and the last
+         * samples are mixed before the media is torn down. Only meaningful
+         * once the queues are seen empty.
+         */
+        private boolean presentersFinished() {
+            AudioOutput.Channel channel = audioChannel;
+            return !videoThread.presenting && !audioThread.presenting && (channel == null || channel.isDrained());
+        }
+
+        private void startPlaybackIfReady(boolean endOfInput) {
+            if (started || !((frames.size() >= minimumFrames && samples.size() >= minimumSamples)
+                    || (endOfInput && videoDrained && audioDrained))) {
+                return;
+            }
+            showFirstFrame();
+            if (holding) {
+                return;
+            }
+            audioThread.start();
+            videoThread.start();
+            started = true;
+            if (startedCallback != null) {
+                startedCallback.run();
+            }
+        }
+
+        /**
+         * Puts the first buffered frame on screen before the presenters start,
+         * so whoever swaps this media in on the started callback never draws
+         * an empty frame. The video thread still presents it on schedule.
+         */
+        private void showFirstFrame() {
+            if (firstFrameShown) {
+                return;
+            }
+            firstFrameShown = true;
+            //nothing consumes frames until the video thread starts, so peeking here is safe
+            PooledFrame first = frames.peek();
+            if (first != null && first.serial == serial) {
+                replaceCurrentFrame(first.retain());
+            }
+        }
+
+        private void signalEndingIfNear(boolean endOfInput) {
+            Runnable ending = endingCallback;
+            if (started && ending != null && (endOfInput || clock.get() >= mediaDuration - endingLead)) {
+                endingCallback = null;
+                ending.run();
+            }
+        }
+
+        private boolean seekIfRequested() {
+            long seekPosition = pendingSeek.get();
+            if (seekPosition < 0) {
+                return false;
+            }
+            try {
+                KeyframeIndex index = keyframes;
+                //land on the keyframe ourselves; the demuxer's own backward seek can start well before it
+                ffmpeg.seek(index == null || index.isEmpty() ? seekPosition : index.previous(seekPosition));
+                seekTarget = seekPosition;
+                serial++;
+                //the decoders discard everything queued before the seek as they reach it
+                videoDrained = minimumFrames == 0;
+                audioDrained = converter == null;
+            } catch (AvException e) {
+                e.printStackTrace();
+            }
+            pendingSeek.compareAndSet(seekPosition, -1);
+            videoPackets.wakeUp();
+            audioPackets.wakeUp();
+            frames.wakeUp();
+            samples.wakeUp();
+            wakePresenters();
+            unpark(seekWaiter);
+            return true;
+        }
+
+        private Packet obtainPacket() {
+            Packet packet = spare;
+            spare = null;
+            if (packet == null) {
+                packet = videoPacketPool.poll();
+            }
+            if (packet == null) {
+                packet = audioPacketPool.poll();
+            }
+            return packet != null ? packet : new Packet();
+        }
+
+        private void queuePacket(Packet packet, RingBuffer<Packet> queue) throws InterruptedException {
+            while (!queue.offer(packet, MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                startPlaybackIfReady(false);
+                if (canceled || pendingSeek.get() >= 0) {
+                    FFmpegFrameGrabber.releasePacket(packet.packet);
+                    spare = packet;
+                    return;
+                }
+            }
+        }
+
+        private void queueEndOfStream(RingBuffer<Packet> queue) throws InterruptedException {
+            Packet packet = obtainPacket();
+            FFmpegFrameGrabber.endOfStreamPacket(packet.packet);
+            packet.serial = serial;
+            queuePacket(packet, queue);
+        }
+
+        private void releaseAll(RingBuffer<Packet> queue) {
+            Packet packet;
+            while ((packet = queue.poll()) != null) {
+                FFmpegFrameGrabber.releasePacket(packet.packet);
+            }
+        }
+
+        void wakeUp() {
+            videoPackets.wakeUp();
+            audioPackets.wakeUp();
+            unpark(this);
+        }
+
         @Override
         public void interrupt() {
             canceled = true;
@@ -423,26 +1043,234 @@ public class Media implements ImageSource, CleanCloseable, Startable, Pauseable
         }
     }
 
-    private void updatePausedImage() {
-        if (minimumFrames > 0) {
-            DataFrame<BufferedImage> frame = frames.peek();
-            if (frame != null) {
-                currentImage = frame.data;
+    private class VideoDecodeThread extends Thread {
+
+        volatile boolean canceled = false;
+        private int decoderSerial = 0;
+        private int discard = AVDISCARD_DEFAULT;
+        //decoding time spent since the last frame came out, for sizing the queue
+        private long decodeNanos = 0;
+
+        public VideoDecodeThread() {
+            super("VideoDecodeThread");
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!canceled && !interrupted()) {
+                    Packet packet = videoPackets.poll(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (packet == null) {
+                        continue;
+                    }
+                    try {
+                        if (packet.serial != serial) {
+                            //read before a seek
+                            continue;
+                        }
+                        if (packet.serial != decoderSerial) {
+                            ffmpeg.flushVideo();
+                            setDiscard(AVDISCARD_DEFAULT);
+                            decoderSerial = packet.serial;
+                        }
+                        if (packet.packet.size() == 0) {
+                            Frame frame;
+                            while ((frame = decode(packet.packet)) != null) {
+                                queueFrame(frame, packet.serial);
+                            }
+                            if (packet.serial == serial) {
+                                videoDrained = true;
+                            }
+                        } else {
+                            Frame frame = decode(packet.packet);
+                            if (frame != null) {
+                                queueFrame(frame, packet.serial);
+                            }
+                        }
+                    } finally {
+                        FFmpegFrameGrabber.releasePacket(packet.packet);
+                        videoPacketPool.offer(packet);
+                    }
+                }
+            } catch (InterruptedException e) {
+                //just exit
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+
+        private Frame decode(AVPacket packet) throws AvException {
+            long start = System.nanoTime();
+            Frame frame = ffmpeg.decodeVideo(packet);
+            decodeNanos += System.nanoTime() - start;
+            return frame;
+        }
+
+        private void queueFrame(Frame frame, int frameSerial) throws InterruptedException, AvException {
+            long decodeMicros = decodeNanos / 1000;
+            decodeNanos = 0;
+            if (frameSerial != serial || frame.timestamp + frame.duration < seekTarget) {
+                //decoded only to get the decoder to the seek target, never shown
+                return;
+            }
+            adjustDiscard(lag(frame));
+            while (!frames.awaitNotFull(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (canceled || frameSerial != serial) {
+                    return;
+                }
+            }
+            if (lag(frame) > lateFrameThreshold) {
+                //will never be shown, don't pay for sws_scale
+                skippedFrames++;
+                return;
+            }
+            applyTargetSize();
+            resizeFramePool(decodeMicros, frame.duration);
+            PooledFrame image;
+            while ((image = (PooledFrame) ffmpeg.processFrame(frame)) == null) {
+                if (canceled || frameSerial != serial) {
+                    return;
+                }
+            }
+            image.serial = frameSerial;
+            frames.offer(image);
+            countQueued(framesQueued, frameSerial);
+            unpark(seekWaiter);
+        }
+
+        private void resizeFramePool(long decodeMicros, long frameDuration) {
+            FrameQueueSizer sizer = frameQueueSizer;
+            sizer.setFrameFormat(ffmpeg.getOutputFrameBytes(), frameRate);
+            sizer.recordDecode(decodeMicros, frameDuration);
+            int capacity = sizer.getCapacity() + FRAME_POOL_HEADROOM;
+            if (capacity != framePool.capacity()) {
+                framePool.setCapacity(capacity);
+            }
+        }
+
+        private long lag(Frame frame) {
+            if (paused || !clock.isRunning()) {
+                return 0;
+            }
+            return clock.get() - frame.timestamp;
+        }
+
+        /**
+         * Sheds decode work while video is behind, backing off only once it
+         * has caught up well inside the threshold so it doesn't flap.
+         */
+        private void adjustDiscard(long lag) {
+            long threshold = lateFrameThreshold;
+            int wanted = discard;
+            if (lag > threshold * 4) {
+                wanted = AVDISCARD_NONKEY;
+            } else if (lag > threshold && discard < AVDISCARD_NONREF) {
+                wanted = AVDISCARD_NONREF;
+            } else if (lag < threshold / 2) {
+                wanted = AVDISCARD_DEFAULT;
             }
+            if (wanted != discard) {
+                log("video %d ms behind, decoder discard level %d", lag / 1000, wanted);
+                setDiscard(wanted);
+            }
+        }
+
+        private void setDiscard(int discard) {
+            ffmpeg.setVideoDiscard(discard);
+            this.discard = discard;
         }
     }
 
-    private long microTime() {
-        return System.nanoTime() / 1000;
+    private class AudioDecodeThread extends Thread {
+
+        volatile boolean canceled = false;
+        private int decoderSerial = 0;
+
+        private DataFrame<byte[]> spare;
+
+        public AudioDecodeThread() {
+            super("AudioDecodeThread");
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!canceled && !interrupted()) {
+                    Packet packet = audioPackets.poll(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                    if (packet == null) {
+                        continue;
+                    }
+                    try {
+                        if (packet.serial != serial) {
+                            //read before a seek
+                            continue;
+                        }
+                        if (packet.serial != decoderSerial) {
+                            ffmpeg.flushAudio();
+                            decoderSerial = packet.serial;
+                        }
+                        decodePacket(packet);
+                        if (packet.packet.size() == 0 && packet.serial == serial) {
+                            //the decoder has given up the samples it held back
+                            audioDrained = true;
+                        }
+                    } finally {
+                        FFmpegFrameGrabber.releasePacket(packet.packet);
+                        audioPacketPool.offer(packet);
+                    }
+                }
+            } catch (InterruptedException e) {
+                //just exit
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+
+        private void decodePacket(Packet packet) throws InterruptedException, AvException {
+            ffmpeg.setAudioPacket(packet.packet);
+            Frame frame;
+            while ((frame = ffmpeg.decodeAudio()) != null) {
+                if (frame.timestamp + frame.duration < seekTarget) {
+                    continue;
+                }
+                DataFrame<byte[]> samplesFrame = obtainSampleFrame(converter.outputSize(frame.samples));
+                samplesFrame.length = converter.convert(frame.samples, samplesFrame.data);
+                samplesFrame.timestamp = frame.timestamp;
+                samplesFrame.duration = frame.duration;
+                samplesFrame.serial = packet.serial;
+                while (!samples.offer(samplesFrame, MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (canceled || packet.serial != serial) {
+                        spare = samplesFrame;
+                        return;
+                    }
+                }
+                countQueued(samplesQueued, packet.serial);
+                unpark(seekWaiter);
+            }
+        }
+
+        private DataFrame<byte[]> obtainSampleFrame(int size) {
+            DataFrame<byte[]> samplesFrame = spare;
+            spare = null;
+            if (samplesFrame == null) {
+                samplesFrame = samplePool.poll();
+            }
+            if (samplesFrame == null) {
+                samplesFrame = new DataFrame<>(new byte[size], 0, 0, 0);
+            } else if (samplesFrame.data.length < size) {
+                samplesFrame.data = new byte[size];
+            }
+            return samplesFrame;
+        }
     }
 
     private class VideoThread extends Thread {
 
         volatile boolean canceled = false;
-        private final Stats closeMatch = new Stats();
-        private final Stats fastVideo = new Stats();
-        private final Stats slowVideo = new Stats();
-        private final Stats positionJump = new Stats();
+        //set before taking a frame and cleared once it has been shown or dropped
+        volatile boolean presenting = false;
+        private final Stats lateness = new Stats();
+        private final RollingAverage recentLateness = new RollingAverage(50);
 
         public VideoThread() {
             super("VideoThread");
@@ -450,58 +1278,89 @@ public class Media implements ImageSource, CleanCloseable, Startable, Pauseable
 
         @Override
         public void run() {
-            Long interframe = (long) (1_000_000 / frameRate);
-            long delayStep = (long) (interframe / frameRate);
-            long lastMediaPosition = 0;
+            int shownSerial = serial;
             try {
                 while (!canceled && !interrupted()) {
+                    presenting = false;
+                    if (paused && shownSerial == serial) {
+                        awaitPlayback(shownSerial);
+                        continue;
+                    }
+                    if (!frames.awaitNotEmpty(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        continue;
+                    }
+                    presenting = true;
+                    PooledFrame frame = frames.poll();
+                    if (frame == null) {
+                        continue;
+                    }
+                    if (frame.serial != serial) {
+                        frame.release();
+                        continue;
+                    }
+                    shownSerial = frame.serial;
                     if (paused) {
-                        TimeUnit.MILLISECONDS.sleep(2);
-                    } else {
-                        long frameStart = microTime();
-                        DataFrame<BufferedImage> frame = frames.poll();
-                        if (frame != null) {
-                            frameQueueSize.decrementAndGet();
-                            BufferedImage image = frame.data;
-                            if (currentImage != null) {
-                                imageBuffer.offer(currentImage); //recycle it!
-                            }
-                            currentImage = image;
-                            FrameCoordinator.notify(Media.this);
-                            if (minimumSamples > 0) {
-                                long mediaPosition = getMediaPosition();
-                                positionJump.addValue(mediaPosition - lastMediaPosition);
-                                lastMediaPosition = mediaPosition;
-                                long delay = 0;
-                                while (frame.timestamp > getMediaPosition() + interframe && delay < interframe) {
-                                    delay += delayStep;
-                                    TimeUnit.MICROSECONDS.sleep(delayStep);
-                                }
-                                fpsStats.addValue(delay);
-                            } else {
-                                setMediaPosition(frame.timestamp);
-                                long delay = interframe - (microTime() - frameStart);
-                                fpsStats.addValue(delay);
-                                TimeUnit.MICROSECONDS.sleep(delay);
-                            }
-                            videoPosition = frame.timestamp;
-                        }
+                        //seeked while paused, this frame becomes the still
+                        show(frame);
+                        continue;
                     }
+                    if (audioChannel == null && !clock.isRunning()) {
+                        //no audio, so the video schedule is the master clock
+                        startClock(frame.timestamp);
+                    }
+                    awaitDeadline(frame);
+                    if (frame.serial != serial) {
+                        frame.release();
+                        continue;
+                    }
+                    long late = clock.get() - frame.timestamp;
+                    if (late > frame.duration && !frames.isEmpty() && !paused) {
+                        //a newer frame is already due, skip this one
+                        frame.release();
+                        droppedFrames++;
+                        continue;
+                    }
+                    show(frame);
+                    lateness.addValue(late);
+                    avDrift = (long) recentLateness.addValue(late);
                 }
             } catch (InterruptedException e) {
                 //just exit
             } catch (Throwable e) {
                 e.printStackTrace();
             } finally {
-                fpsStats.report("interframe delay", 0.001);
-                positionJump.report("Media position deltas", 0.001);
+                lateness.report("frame lateness", 0.001);
+                log("%d frames dropped", droppedFrames);
             }
         }
+
+        /**
+         * Parks until the master clock reaches the frame, or a pause or seek
+         * makes the wait moot. The previous frame stays up meanwhile.
+         */
+        private void awaitDeadline(PooledFrame frame) throws InterruptedException {
+            long early;
+            while ((early = frame.timestamp - clock.get()) > 0
+                    && !canceled && !paused && frame.serial == serial) {
+                LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(Math.min(early, MAX_WAIT_MILLIS * 1000)));
+                if (interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+
+        private void show(PooledFrame frame) {
+            replaceCurrentFrame(frame);
+            videoPosition = frame.timestamp;
+            FrameCoordinator.notify(Media.this);
+        }
     }
 
     private class AudioThread extends Thread {
 
         volatile boolean canceled = false;
+        //set before taking samples and cleared once they have been written
+        volatile boolean presenting = false;
 
         public AudioThread() {
             super("AudioThread");
@@ -509,73 +1368,78 @@ public class Media implements ImageSource, CleanCloseable, Startable, Pauseable
 
         @Override
         public void run() {
-            Thread updateThread = null;
+            int playedSerial = serial;
             try {
                 while (!canceled && !interrupted()) {
+                    presenting = false;
+                    AudioOutput.Channel channel = audioChannel;
+                    if (channel == null) {
+                        //nowhere to play it, keep the decoder moving
+                        recycle(samples.poll(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS));
+                        continue;
+                    }
                     if (paused) {
-                        if (mLine != null) {
-                            mLine.stop();
-                        }
-                        sleep(2);
-                        if (updateThread != null) {
-                            updateThread.interrupt();
-                            updateThread = null;
-                        }
-                    } else {
-                        if (mLine != null && !mLine.isRunning()) {
-                            mLine.start();
-                        }
-                        DataFrame<byte[]> frame = samples.poll();
-                        if (frame != null) {
-                            if (updateThread == null) {
-                                final long offset = frame.timestamp - mLine.getMicrosecondPosition();
-                                updateThread = new Thread(() -> {
-                                    try {
-                                        long lastUpdate = microTime();
-                                        long lastPosition = 0;
-                                        while (!interrupted()) {
-                                            if (mLine != null) {
-                                                long readPosition = mLine.getMicrosecondPosition();
-                                                if (readPosition != lastPosition) {
-                                                    lastPosition = readPosition;
-                                                    lastUpdate = microTime();
-                                                }
-                                                setMediaPosition(lastPosition + offset + microTime() - lastUpdate);
-                                            }
-                                            sleep(1);
-                                        }
-                                    } catch (InterruptedException e) {
-                                    }
-                                });
-                                updateThread.start();
-                            }
-                            sampleQueueSize.decrementAndGet();
-                            byte[] buffer = frame.data;
-
-                            if (mLine != null) {
-                                mLine.write(buffer, 0, buffer.length);
-                            }
+                        channel.setPaused(true);
+                        //let the decoder refill past samples from before a seek while we wait
+                        DataFrame<byte[]> stale;
+                        while ((stale = samples.peek()) != null && stale.serial != serial) {
+                            recycle(samples.poll());
                         }
+                        awaitPlayback(serial);
+                        continue;
+                    }
+                    channel.setPaused(false);
+                    if (!samples.awaitNotEmpty(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        continue;
+                    }
+                    presenting = true;
+                    DataFrame<byte[]> frame = samples.poll();
+                    if (frame == null || frame.serial != serial) {
+                        recycle(frame);
+                        continue;
                     }
+                    if (frame.serial != playedSerial) {
+                        //audio from before the seek is still queued for output
+                        channel.flush();
+                        playedSerial = frame.serial;
+                    }
+                    channel.write(frame.data, 0, frame.length);
+                    long writtenUntil = frame.timestamp + channel.toMicros(frame.length);
+                    long queuedMicros = channel.getQueuedMicros();
+                    startClock(writtenUntil - queuedMicros);
+                    clock.syncToAudio(writtenUntil, queuedMicros);
+                    recycle(frame);
                 }
             } catch (InterruptedException e) {
-            } finally {
-                if (updateThread != null)
-                    updateThread.interrupt();
+            }
+        }
+
+        private void recycle(DataFrame<byte[]> frame) {
+            if (frame != null) {
+                samplePool.offer(frame);
             }
         }
     }
 
     private static class DataFrame<T> {
 
-        final T data;
-        final long timestamp;
-        final long duration;
+        T data;
+        int length;
+        long timestamp;
+        long duration;
+        int serial;
 
-        DataFrame(T data, long timestamp, long duration) {
+        DataFrame(T data, long timestamp, long duration, int serial) {
             this.data = data;
             this.timestamp = timestamp;
             this.duration = duration;
+            this.serial = serial;
         }
     }
+
+    private static class Packet {
+
+        final AVPacket packet = new AVPacket();
+        int serial;
+    }
 }
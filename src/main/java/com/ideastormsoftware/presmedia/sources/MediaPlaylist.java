@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.sources;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.swing.SwingUtilities;
+
+/**
+ * Plays a list of media files back to back. While one item is in its last
+ * seconds the next is opened and buffered, so the switch over has no gap.
+ * The list is re-read at every transition, so it may be edited while it
+ * plays. The suppliers and callbacks are all called on the Swing event
+ * thread.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public class MediaPlaylist {
+
+    public static final long PRELOAD_LEAD = TimeUnit.SECONDS.toMicros(5);
+
+    private final Supplier<List<File>> items;
+    private final BooleanSupplier loop;
+    private final Consumer<Media> mediaChanged;
+    private final Runnable finished;
+    private int index = 0;
+    private Media next;
+    private String nextPath;
+    private boolean stopped = false;
+    private Supplier<Dimension> targetSize;
+
+    /**
+     * @param mediaChanged called with each item after the first, when it
+     * should replace the previous one
+     * @param finished called once the last item ends without looping
+     */
+    public MediaPlaylist(Supplier<List<File>> items, BooleanSupplier loop, Consumer<Media> mediaChanged, Runnable finished) {
+        this.items = items;
+        this.loop = loop;
+        this.mediaChanged = mediaChanged;
+        this.finished = finished;
+    }
+
+    /**
+     * Sets the size every item is decoded for, such as the projector's.
+     *
+     * @see Media#setTargetSize(Supplier)
+     */
+    public synchronized void setTargetSize(Supplier<Dimension> targetSize) {
+        this.targetSize = targetSize;
+    }
+
+    /**
+     * @return the first item, not yet started, or null if the list is empty
+     */
+    public synchronized Media first() {
+        List<File> files = items.get();
+        if (files.isEmpty()) {
+            return null;
+        }
+        index = 0;
+        return open(files.get(0).getAbsolutePath());
+    }
+
+    /**
+     * Stops advancing and releases the pre-opened item, if any. The item
+     * currently playing belongs to whoever is displaying it.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        discardNext();
+    }
+
+    private Media open(String path) {
+        //media callbacks arrive on its demux thread
+        Media media = new Media(path, () -> SwingUtilities.invokeLater(this::itemFinished));
+        media.setEndingCallback(() -> SwingUtilities.invokeLater(this::itemEnding), PRELOAD_LEAD);
+        media.setTargetSize(targetSize);
+        return media;
+    }
+
+    private int nextIndex(List<File> files) {
+        int following = index + 1;
+        if (following >= files.size()) {
+            return loop.getAsBoolean() && !files.isEmpty() ? 0 : -1;
+        }
+        return following;
+    }
+
+    private synchronized void itemEnding() {
+        if (stopped || next != null) {
+            return;
+        }
+        List<File> files = items.get();
+        int following = nextIndex(files);
+        if (following >= 0) {
+            nextPath = files.get(following).getAbsolutePath();
+            next = open(nextPath);
+            next.prepare();
+        }
+    }
+
+    private synchronized void itemFinished() {
+        if (stopped) {
+            return;
+        }
+        List<File> files = items.get();
+        int following = nextIndex(files);
+        if (following < 0) {
+            discardNext();
+            finished.run();
+            return;
+        }
+        String path = files.get(following).getAbsolutePath();
+        Media media = next;
+        if (media == null || !path.equals(nextPath)) {
+            //the list changed since the next item was opened
+            discardNext();
+            media = open(path);
+        }
+        next = null;
+        nextPath = null;
+        index = following;
+        mediaChanged.accept(media);
+    }
+
+    private void discardNext() {
+        if (next != null) {
+            next.close();
+            next = null;
+            nextPath = null;
+        }
+    }
+}
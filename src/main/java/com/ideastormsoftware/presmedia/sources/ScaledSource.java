@@ -31,15 +31,33 @@ import org.imgscalr.Scalr;
 public class ScaledSource {
 
     private Supplier<Optional<BufferedImage>> source = new ColorSource();
+    private volatile long sourceChanges = 0;
 
     public ScaledSource setSource(Supplier<Optional<BufferedImage>> source) {
         if (source == null) {
             source = new ColorSource();
         }
         this.source = source;
+        sourceChanges++;
         return this;
     }
 
+    /**
+     * @return a key that stays the same for as long as
+     * {@link #scaleInto(Graphics2D, Dimension, Optional)} would draw the
+     * same picture, or {@link FrameKey#UNVERSIONED} if that can't be told
+     */
+    public FrameKey getFrameKey() {
+        return FrameKey.of(sourceChanges, frameNumber(source));
+    }
+
+    protected static long frameNumber(Supplier<Optional<BufferedImage>> source) {
+        if (source instanceof ImageSource) {
+            return ((ImageSource) source).getFrameNumber();
+        }
+        return ImageSource.UNVERSIONED;
+    }
+
     protected Supplier<Optional<BufferedImage>> getSource() {
         return source;
     }
@@ -54,7 +72,18 @@ public class ScaledSource {
         if (targetSize == null) {
             throw new IllegalArgumentException("targetSize is null");
         }
-        drawScaled(graphics, source != null ? source.get() : Optional.empty(), targetSize, quality);
+        drawScaled(graphics, source != null ? fetch(source, targetSize) : Optional.empty(), targetSize, quality);
+    }
+
+    /**
+     * Gets the source's image, already at the drawn size if the source can
+     * produce it that way.
+     */
+    protected static Optional<BufferedImage> fetch(Supplier<Optional<BufferedImage>> source, Dimension targetSize) {
+        if (source instanceof SizedImageSource) {
+            return ((SizedImageSource) source).get(targetSize);
+        }
+        return source.get();
     }
 
     protected void drawScaled(Graphics2D graphics, Optional<BufferedImage> image, Dimension targetSize, Optional<Scalr.Method> quality) {
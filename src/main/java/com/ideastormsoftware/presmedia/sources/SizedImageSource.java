@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.sources;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.util.Optional;
+
+/**
+ * A source that can produce its image at the size it will be drawn, which
+ * is cheaper than producing it at full size and scaling it again.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public interface SizedImageSource extends ImageSource {
+
+    /**
+     * @return the current image scaled to fit within the target size,
+     * keeping its aspect ratio
+     */
+    public Optional<BufferedImage> get(Dimension targetSize);
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.sources;
+
+import java.awt.image.BufferedImage;
+import java.util.Optional;
+
+/**
+ * A picture that never changes, such as a background image.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public class StillImageSource implements ImageSource {
+
+    private final Optional<BufferedImage> image;
+
+    public StillImageSource(BufferedImage image) {
+        this.image = Optional.of(image);
+    }
+
+    @Override
+    public Optional<BufferedImage> get() {
+        return image;
+    }
+
+    @Override
+    public double getFps() {
+        return 0;
+    }
+
+    @Override
+    public long getFrameNumber() {
+        return 0;
+    }
+}
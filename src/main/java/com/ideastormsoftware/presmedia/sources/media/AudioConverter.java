@@ -16,62 +16,68 @@
 package com.ideastormsoftware.presmedia.sources.media;
 
 import java.nio.Buffer;
-import java.nio.DoubleBuffer;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.nio.ShortBuffer;
-import org.bytedeco.javacpp.ShortPointer;
 
+/**
+ * Turns decoded sample buffers into interleaved little-endian PCM for
+ * playback. Conversion writes into a caller-supplied array in one pass, so
+ * the converters allocate nothing per frame. The sample buffers are read
+ * with absolute gets and left as they were.
+ */
 public abstract class AudioConverter {
 
-    public abstract byte[] prepareSamplesForPlayback(Buffer[] samples);
+    /**
+     * @return the number of bytes {@link #convert(Buffer[], byte[])} will
+     * write for these samples
+     */
+    public abstract int outputSize(Buffer[] samples);
 
-    protected static Buffer convertDblToShortBuffer(DoubleBuffer buffer) {
-        double[] bufferData;
-        if (buffer.hasArray()) {
-            bufferData = buffer.array();
-        } else {
-            bufferData = new double[buffer.remaining()];
-            buffer.get(bufferData);
-        }
-        ShortBuffer shortBuffer = ShortBuffer.allocate(bufferData.length);
-        for (double c : bufferData) {
-            shortBuffer.put((short) (c * Short.MAX_VALUE));
-        }
-        shortBuffer.rewind();
-        return new ShortPointer(shortBuffer).asByteBuffer();
+    /**
+     * @param target at least {@link #outputSize(Buffer[])} bytes
+     * @return the number of bytes written
+     */
+    public abstract int convert(Buffer[] samples, byte[] target);
+
+    public int getSampleSizeInBits() {
+        return 16;
+    }
+
+    public boolean isSigned() {
+        return true;
     }
 
-    protected static Buffer convertFltToShortBuffer(FloatBuffer buffer) {
-        float[] bufferData;
-        if (buffer.hasArray()) {
-            bufferData = buffer.array();
-        } else {
-            bufferData = new float[buffer.remaining()];
-            buffer.get(bufferData);
+    public byte[] prepareSamplesForPlayback(Buffer[] samples) {
+        byte[] target = new byte[outputSize(samples)];
+        convert(samples, target);
+        return target;
+    }
+
+    protected static void putShort(byte[] target, int index, int value) {
+        target[index] = (byte) value;
+        target[index + 1] = (byte) (value >> 8);
+    }
+
+    protected static int fltToShort(float value) {
+        //full scale float is +-1.0, anything past that would wrap around when cast
+        if (value >= 1f) {
+            return Short.MAX_VALUE;
         }
-        ShortBuffer shortBuffer = ShortBuffer.allocate(bufferData.length);
-        for (double c : bufferData) {
-            shortBuffer.put((short) (c * Short.MAX_VALUE));
+        if (value <= -1f) {
+            return Short.MIN_VALUE;
         }
-        shortBuffer.rewind();
-        return new ShortPointer(shortBuffer).asByteBuffer();
+        return (int) (value * Short.MAX_VALUE);
     }
 
-    protected static Buffer convertIntToShortBuffer(IntBuffer buffer) {
-        int[] bufferData;
-        if (buffer.hasArray()) {
-            bufferData = buffer.array();
-        } else {
-            bufferData = new int[buffer.remaining()];
-            buffer.get(bufferData);
+    protected static int dblToShort(double value) {
+        if (value >= 1d) {
+            return Short.MAX_VALUE;
         }
-        ShortBuffer shortBuffer = ShortBuffer.allocate(bufferData.length);
-        for (double c : bufferData) {
-            shortBuffer.put((short) (((double) c) / Integer.MAX_VALUE * Short.MAX_VALUE));
+        if (value <= -1d) {
+            return Short.MIN_VALUE;
         }
-        shortBuffer.rewind();
-        return new ShortPointer(shortBuffer).asByteBuffer();
+        return (int) (value * Short.MAX_VALUE);
     }
 
+    protected static int intToShort(int value) {
+        return value >> 16;
+    }
 }
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.sources.media;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * The one audio line for the whole application. It is opened once at a
+ * canonical format and never closed, since opening and draining lines is
+ * slow on some mixers. Each media source writes into its own
+ * {@link Channel}, which converts to the canonical format, and a mixer
+ * thread sums the channels into the line. Per-channel gain ramps let
+ * consecutive media crossfade.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public class AudioOutput {
+
+    public static final float SAMPLE_RATE = 48000;
+    public static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, 2, true, false);
+    private static final int FRAME_BYTES = 4;
+    //frames mixed per line write
+    private static final int PERIOD_FRAMES = (int) (SAMPLE_RATE / 100);
+    private static final int LINE_BUFFER_FRAMES = PERIOD_FRAMES * 10;
+    private static final int CHANNEL_BUFFER_FRAMES = PERIOD_FRAMES * 20;
+
+    private static AudioOutput instance;
+
+    public static synchronized AudioOutput getInstance() throws LineUnavailableException {
+        if (instance == null) {
+            instance = new AudioOutput();
+        }
+        return instance;
+    }
+
+    private final SourceDataLine line;
+    private final List<Channel> channels = new CopyOnWriteArrayList<>();
+    private final Object idleLock = new Object();
+
+    private AudioOutput() throws LineUnavailableException {
+        line = AudioSystem.getSourceDataLine(FORMAT);
+        line.open(FORMAT, LINE_BUFFER_FRAMES * FRAME_BYTES);
+        Thread mixer = new Thread(this::mix, "AudioMixer");
+        mixer.setDaemon(true);
+        mixer.setPriority(Thread.MAX_PRIORITY);
+        mixer.start();
+    }
+
+    /**
+     * @param format the PCM format the caller will write, 8, 16 or 32 bit
+     * little-endian at any rate and channel count
+     */
+    public Channel openChannel(AudioFormat format, float gain) {
+        Channel channel = new Channel(format, gain);
+        channels.add(channel);
+        synchronized (idleLock) {
+            idleLock.notifyAll();
+        }
+        return channel;
+    }
+
+    private long lineQueuedFrames() {
+        return (line.getBufferSize() - line.available()) / FRAME_BYTES;
+    }
+
+    private void mix() {
+        float[] mixed = new float[PERIOD_FRAMES * 2];
+        byte[] output = new byte[PERIOD_FRAMES * FRAME_BYTES];
+        try {
+            while (true) {
+                if (channels.isEmpty()) {
+                    line.stop();
+                    synchronized (idleLock) {
+                        while (channels.isEmpty()) {
+                            idleLock.wait();
+                        }
+                    }
+                    line.start();
+                }
+                //keeps writing silence while channels are open but empty or paused, so the line latency stays steady
+                Arrays.fill(mixed, 0);
+                for (Channel channel : channels) {
+                    if (!channel.mixInto(mixed, PERIOD_FRAMES)) {
+                        channels.remove(channel);
+                    }
+                }
+                for (int i = 0; i < mixed.length; i++) {
+                    int sample = Math.round(Math.max(-1, Math.min(1, mixed[i])) * Short.MAX_VALUE);
+                    output[i * 2] = (byte) sample;
+                    output[i * 2 + 1] = (byte) (sample >> 8);
+                }
+                line.write(output, 0, output.length);
+            }
+        } catch (InterruptedException e) {
+            //only at shutdown
+        }
+    }
+
+    /**
+     * One source's feed into the shared line. A single thread writes to it;
+     * the mixer reads from it.
+     */
+    public class Channel {
+
+        private final int sourceChannels;
+        private final int sourceBytes;
+        private final boolean signed;
+        private final float sourceRate;
+        private final double step;
+        //canonical stereo frames waiting to be mixed, interleaved
+        private final float[] buffer = new float[CHANNEL_BUFFER_FRAMES * 2];
+        private int readFrame = 0;
+        private int queuedFrames = 0;
+        private float previousLeft, previousRight;
+        private double phase = 0;
+        //converted samples waiting to be queued, only touched by the writing thread
+        private float[] converted = new float[PERIOD_FRAMES * 2];
+        private float gain;
+        private float gainStep = 0;
+        private float targetGain;
+        private boolean paused = false;
+        private boolean finishing = false;
+        private boolean closed = false;
+
+        private Channel(AudioFormat format, float gain) {
+            int bits = format.getSampleSizeInBits();
+            if (format.isBigEndian() || (bits != 8 && bits != 16 && bits != 32)) {
+                throw new IllegalArgumentException("unsupported audio format " + format);
+            }
+            this.sourceChannels = format.getChannels();
+            this.sourceBytes = bits / 8;
+            this.signed = format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED;
+            this.sourceRate = format.getSampleRate();
+            this.step = sourceRate / SAMPLE_RATE;
+            this.gain = gain;
+            this.targetGain = gain;
+        }
+
+        /**
+         * Converts and queues samples, blocking while the channel is full.
+         */
+        public void write(byte[] data, int offset, int length) throws InterruptedException {
+            int frameBytes = sourceBytes * sourceChannels;
+            int maxFrames = (int) Math.ceil(length / frameBytes / step) + 2;
+            if (converted.length < maxFrames * 2) {
+                converted = new float[maxFrames * 2];
+            }
+            int count = 0;
+            for (int frame = offset; frame + frameBytes <= offset + length; frame += frameBytes) {
+                float left = sample(data, frame);
+                float right = left;
+                if (sourceChannels > 1) {
+                    right = sample(data, frame + sourceBytes);
+                    if (sourceChannels > 2) {
+                        //fold the remaining channels into both sides at half level
+                        float rest = 0;
+                        for (int c = 2; c < sourceChannels; c++) {
+                            rest += sample(data, frame + c * sourceBytes);
+                        }
+                        float weight = 1 + (sourceChannels - 2) * 0.5f;
+                        left = (left + rest * 0.5f) / weight;
+                        right = (right + rest * 0.5f) / weight;
+                    }
+                }
+                //linear interpolation from the source rate to the line rate
+                while (phase < 1) {
+                    converted[count++] = previousLeft + (left - previousLeft) * (float) phase;
+                    converted[count++] = previousRight + (right - previousRight) * (float) phase;
+                    phase += step;
+                }
+                phase -= 1;
+                previousLeft = left;
+                previousRight = right;
+            }
+            queue(converted, count / 2);
+        }
+
+        private float sample(byte[] data, int index) {
+            switch (sourceBytes) {
+                case 1:
+                    return (signed ? data[index] : (data[index] & 0xff) - 128) / 128f;
+                case 2:
+                    return (short) ((data[index] & 0xff) | (data[index + 1] << 8)) / 32768f;
+                default:
+                    return ((data[index] & 0xff) | ((data[index + 1] & 0xff) << 8)
+                            | ((data[index + 2] & 0xff) << 16) | (data[index + 3] << 24)) / 2147483648f;
+            }
+        }
+
+        private synchronized void queue(float[] samples, int frames) throws InterruptedException {
+            int done = 0;
+            while (done < frames) {
+                while (queuedFrames == CHANNEL_BUFFER_FRAMES && !closed) {
+                    wait();
+                }
+                if (closed) {
+                    return;
+                }
+                for (; done < frames && queuedFrames < CHANNEL_BUFFER_FRAMES; done++) {
+                    int index = ((readFrame + queuedFrames) % CHANNEL_BUFFER_FRAMES) * 2;
+                    buffer[index] = samples[done * 2];
+                    buffer[index + 1] = samples[done * 2 + 1];
+                    queuedFrames++;
+                }
+            }
+        }
+
+        /**
+         * @return false once the channel should be dropped from the mix
+         */
+        private synchronized boolean mixInto(float[] mixed, int frames) {
+            if (closed || (finishing && queuedFrames == 0)) {
+                closed = true;
+                notifyAll();
+                return false;
+            }
+            if (paused) {
+                return true;
+            }
+            int count = Math.min(frames, queuedFrames);
+            for (int i = 0; i < count; i++) {
+                int index = ((readFrame + i) % CHANNEL_BUFFER_FRAMES) * 2;
+                mixed[i * 2] += buffer[index] * gain;
+                mixed[i * 2 + 1] += buffer[index + 1] * gain;
+                if (gain != targetGain) {
+                    gain += gainStep;
+                    if ((gainStep > 0 && gain > targetGain) || (gainStep < 0 && gain < targetGain)) {
+                        gain = targetGain;
+                    }
+                }
+            }
+            readFrame = (readFrame + count) % CHANNEL_BUFFER_FRAMES;
+            queuedFrames -= count;
+            notifyAll();
+            return true;
+        }
+
+        /**
+         * @return whether everything written has been mixed into the line,
+         * where only the line's own buffer is left to play
+         */
+        public synchronized boolean isDrained() {
+            return queuedFrames == 0;
+        }
+
+        /**
+         * @return how long until the last sample written is heard, in
+         * microseconds, counting the shared line's buffer
+         */
+        public long getQueuedMicros() {
+            int queued;
+            synchronized (this) {
+                queued = queuedFrames;
+            }
+            return (long) ((queued + lineQueuedFrames()) * 1_000_000L / SAMPLE_RATE);
+        }
+
+        /**
+         * @return the playing time of the given number of bytes in the format
+         * this channel was opened with, in microseconds
+         */
+        public long toMicros(int length) {
+            return (long) (length * 1_000_000.0 / (sourceBytes * sourceChannels * sourceRate));
+        }
+
+        /**
+         * Ramps the gain linearly, starting from the current gain.
+         */
+        public synchronized void fadeTo(float gain, double seconds) {
+            targetGain = gain;
+            float frames = (float) (seconds * SAMPLE_RATE);
+            if (frames < 1) {
+                this.gain = gain;
+                gainStep = 0;
+            } else {
+                gainStep = (gain - this.gain) / frames;
+            }
+        }
+
+        /**
+         * Holds the queued samples out of the mix without losing them.
+         */
+        public synchronized void setPaused(boolean paused) {
+            this.paused = paused;
+        }
+
+        /**
+         * Discards everything queued, such as audio from before a seek.
+         */
+        public synchronized void flush() {
+            queuedFrames = 0;
+            phase = 0;
+            notifyAll();
+        }
+
+        /**
+         * Lets what has been queued play out, then leaves the mix. Doesn't
+         * block.
+         */
+        public synchronized void finish() {
+            finishing = true;
+        }
+
+        /**
+         * Leaves the mix at once, dropping anything queued.
+         */
+        public synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.sources.media;
+
+/**
+ * How the video decoder spreads its work across cores. Frame threading
+ * scales best but holds back one frame per extra thread; slice threading adds
+ * no latency but only helps codecs/streams encoded with multiple slices.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public enum DecoderThreading {
+    NONE(0),
+    SLICE(DecoderThreading.FF_THREAD_SLICE),
+    FRAME(DecoderThreading.FF_THREAD_FRAME),
+    AUTO(DecoderThreading.FF_THREAD_FRAME | DecoderThreading.FF_THREAD_SLICE);
+
+    //not exported by the javacpp presets
+    static final int FF_THREAD_FRAME = 1;
+    static final int FF_THREAD_SLICE = 2;
+
+    private final int threadType;
+
+    private DecoderThreading(int threadType) {
+        this.threadType = threadType;
+    }
+
+    int getThreadType() {
+        return threadType;
+    }
+}
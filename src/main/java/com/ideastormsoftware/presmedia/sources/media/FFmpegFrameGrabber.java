@@ -47,10 +47,14 @@
 package com.ideastormsoftware.presmedia.sources.media;
 
 import com.ideastormsoftware.presmedia.sources.Frame;
+import com.ideastormsoftware.presmedia.util.ImageUtils;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.File;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
 import org.bytedeco.javacpp.BytePointer;
 import org.bytedeco.javacpp.DoublePointer;
 import org.bytedeco.javacpp.IntPointer;
@@ -61,6 +65,7 @@ import static org.bytedeco.javacpp.avcodec.*;
 import static org.bytedeco.javacpp.avdevice.*;
 import static org.bytedeco.javacpp.avformat.*;
 import static org.bytedeco.javacpp.avutil.*;
+import static org.bytedeco.javacpp.swresample.*;
 import static org.bytedeco.javacpp.swscale.*;
 
 /**
@@ -125,6 +130,11 @@ public class FFmpegFrameGrabber {
         }
     }
     private BufferedImage image;
+    private FramePool framePool;
+    private long framePoolTimeout = 0;
+    private boolean deferredConversion = false;
+    private volatile int maxOutputWidth = 0;
+    private volatile int maxOutputHeight = 0;
 
     public FFmpegFrameGrabber(File file) {
         this(file.getAbsolutePath());
@@ -134,6 +144,78 @@ public class FFmpegFrameGrabber {
         this.filename = filename;
     }
 
+    /**
+     * Sets the pool video frames are decoded into. When set, the grabFrame
+     * calls return a {@link PooledFrame} for each picture, which the caller
+     * owns until it calls {@link PooledFrame#release()}, and wait up to the
+     * given time for one to come free. The pool's images must be
+     * {@code TYPE_3BYTE_BGR} at the decoded size; any that aren't are replaced
+     * as they are used.
+     */
+    public void setFramePool(FramePool framePool, long timeout, TimeUnit unit) {
+        this.framePool = framePool;
+        this.framePoolTimeout = unit.toNanos(timeout);
+    }
+
+    /**
+     * With a frame pool set, keeps pooled frames in the decoder's own pixel
+     * format instead of converting them to BGR. The frames then carry a
+     * copy of the decoded picture and no image; convert the ones that are
+     * shown with a {@link PictureScaler} at the size they are drawn.
+     */
+    public void setDeferredConversion(boolean deferredConversion) {
+        this.deferredConversion = deferredConversion;
+    }
+
+    public boolean isDeferredConversion() {
+        return deferredConversion;
+    }
+
+    /**
+     * Fits converted and deferred pictures within the given size, keeping
+     * their aspect ratio, so frames come out at the size they will be shown
+     * rather than the stream's. Pictures are never enlarged; zero for either
+     * dimension keeps the stream's size. May be changed while decoding; the
+     * next picture comes out at the new size.
+     */
+    public void setOutputSize(int width, int height) {
+        this.maxOutputWidth = width;
+        this.maxOutputHeight = height;
+    }
+
+    public int getOutputWidth() {
+        return video_c == null ? -1 : outputSize(video_c.width(), video_c.height()).width;
+    }
+
+    public int getOutputHeight() {
+        return video_c == null ? -1 : outputSize(video_c.width(), video_c.height()).height;
+    }
+
+    /**
+     * @return the memory one pooled frame takes at the current output size,
+     * in the form frames are kept in
+     */
+    public long getOutputFrameBytes() {
+        if (video_c == null) {
+            return -1;
+        }
+        Dimension size = outputSize(video_c.width(), video_c.height());
+        if (deferredConversion) {
+            return avpicture_get_size(video_c.pix_fmt(), size.width, size.height);
+        }
+        return (long) size.width * size.height * 3;
+    }
+
+    private Dimension outputSize(int width, int height) {
+        int maxWidth = maxOutputWidth;
+        int maxHeight = maxOutputHeight;
+        if (maxWidth <= 0 || maxHeight <= 0 || (width <= maxWidth && height <= maxHeight)) {
+            return new Dimension(width, height);
+        }
+        Dimension fitted = ImageUtils.aspectScaledSize(width, height, maxWidth, maxHeight);
+        return new Dimension(Math.max(fitted.width, 1), Math.max(fitted.height, 1));
+    }
+
     public void release() throws Exception {
         synchronized (org.bytedeco.javacpp.avcodec.class) {
             releaseUnsafe();
@@ -156,12 +238,14 @@ public class FFmpegFrameGrabber {
         if (picture_rgb != null) {
             av_frame_free(picture_rgb);
             picture_rgb = null;
+            picture_rgb_ptr = null;
         }
 
         // Free the native format picture frame
         if (picture != null) {
             av_frame_free(picture);
             picture = null;
+            picture_ptr = null;
         }
 
         // Close the video codec
@@ -192,8 +276,29 @@ public class FFmpegFrameGrabber {
             sws_freeContext(img_convert_ctx);
             img_convert_ctx = null;
         }
+        if (picture_scale_ctx != null) {
+            sws_freeContext(picture_scale_ctx);
+            picture_scale_ctx = null;
+        }
+        if (picture_slabs != null) {
+            picture_slabs.retire();
+            picture_slabs = null;
+        }
 
-        got_frame = null;
+        if (swr_ctx != null) {
+            swr_free(swr_ctx);
+            swr_ctx = null;
+        }
+        if (resampled_buf != null) {
+            av_free(resampled_buf);
+            resampled_buf = null;
+            resampled_ptr = null;
+            resampled_capacity = 0;
+        }
+
+        got_picture = null;
+        got_samples = null;
+        audio_pkt = null;
         frameGrabbed = false;
         timestamp = 0;
         frameNumber = 0;
@@ -209,14 +314,28 @@ public class FFmpegFrameGrabber {
     private AVStream video_st, audio_st;
     private AVCodecContext video_c, audio_c;
     private AVFrame picture, picture_rgb;
+    private PointerPointer<BytePointer> picture_ptr, picture_rgb_ptr;
     private BytePointer buffer_rgb;
     private AVFrame samples_frame;
     private BytePointer[] samples_ptr;
     private Buffer[] samples_buf;
-    private AVPacket pkt, pkt2;
+    private AVPacket pkt, pkt2, audio_pkt;
     private int sizeof_pkt;
-    private int[] got_frame;
+    private int[] got_picture, got_samples;
+    //set by an empty audio packet, which pulls out the frames the decoder held back
+    private boolean audio_draining;
     private SwsContext img_convert_ctx;
+    //scales deferred pictures to the output size without converting them
+    private SwsContext picture_scale_ctx;
+    //where deferred pictures are kept; frames outlive the grabber, so it is retired rather than freed
+    private PictureSlabs picture_slabs;
+    //the size picture_rgb is currently laid out for, within the stream-sized buffer_rgb
+    private int rgb_width, rgb_height;
+    private SwrContext swr_ctx;
+    private BytePointer resampled_buf;
+    private PointerPointer<BytePointer> resampled_ptr;
+    private int resampled_capacity;
+    private final Buffer[] resampled_samples = new Buffer[1];
     private boolean frameGrabbed;
     protected String format = null;
     protected int imageWidth = 0, imageHeight = 0, audioChannels = 0;
@@ -232,13 +351,76 @@ public class FFmpegFrameGrabber {
     protected boolean deinterlace = false;
     protected int frameNumber = 0;
     protected long timestamp = 0;
+    protected DecoderThreading decoderThreading = DecoderThreading.NONE;
+    protected int decoderThreads = 0;
+    protected boolean audioResampling = false;
+
+    public static final int RESAMPLED_SAMPLE_FORMAT = AV_SAMPLE_FMT_S16;
+    public static final int RESAMPLED_SAMPLE_RATE = 48000;
+    public static final int RESAMPLED_CHANNELS = 2;
+    private static final int RESAMPLED_FRAME_BYTES = RESAMPLED_CHANNELS * 2;
+
+    //frame threading gains little past this and every thread adds a frame of latency
+    private static final int MAX_DECODER_THREADS = 16;
+
+    /**
+     * Must be called before {@link #start()}.
+     */
+    public void setDecoderThreading(DecoderThreading decoderThreading) {
+        this.decoderThreading = decoderThreading;
+    }
+
+    /**
+     * Must be called before {@link #start()}. When enabled, audio frames come
+     * out of libswresample as interleaved S16 stereo at 48kHz whatever the
+     * codec produces, with the samples in a single ByteBuffer.
+     */
+    public void setAudioResampling(boolean audioResampling) {
+        this.audioResampling = audioResampling;
+    }
+
+    /**
+     * @return true if audio frames are being resampled; false if it was not
+     * asked for or the resampler couldn't be set up for this codec
+     */
+    public boolean isAudioResampling() {
+        return swr_ctx != null;
+    }
+
+    /**
+     * Must be called before {@link #start()}. Zero sizes the decoder to the
+     * available cores.
+     */
+    public void setDecoderThreads(int decoderThreads) {
+        this.decoderThreads = decoderThreads;
+    }
+
+    /**
+     * @return the number of frames the video decoder holds back before
+     * returning the first picture because of frame threading
+     */
+    public int getDecoderDelay() {
+        if (video_c == null || (video_c.active_thread_type() & DecoderThreading.FF_THREAD_FRAME) == 0) {
+            return 0;
+        }
+        return Math.max(video_c.thread_count() - 1, 0);
+    }
 
     public int getAudioChannels() {
         return audio_c == null ? -1 : audio_c.channels();
     }
 
+    public int getImageWidth() {
+        return video_c == null ? -1 : video_c.width();
+    }
+
+    public int getImageHeight() {
+        return video_c == null ? -1 : video_c.height();
+    }
+
     public int getPixelFormat() {
-        return AV_PIX_FMT_RGB24;
+        //BGR24 matches the byte layout of TYPE_3BYTE_BGR, so scaler output can be copied into a raster as-is
+        return AV_PIX_FMT_BGR24;
     }
 
     public int getVideoCodec() {
@@ -306,10 +488,12 @@ public class FFmpegFrameGrabber {
              to ...666 and the given timestamp has been rounded to ...667
              (or vice versa)
              */
-            while (this.timestamp > timestamp + 1 && grabFrame(false) != null) {
+            //frames short of the target are decoded but never converted, and audio is skipped when there is video to follow
+            boolean doAudio = video_st == null;
+            while (this.timestamp > timestamp + 1 && grabFrame(false, doAudio, false) != null) {
                 // flush frames if seeking backwards
             }
-            while (this.timestamp < timestamp - 1 && grabFrame(false) != null) {
+            while (this.timestamp < timestamp - 1 && grabFrame(false, doAudio, false) != null) {
                 // decode up to the desired frame
             }
             if (video_c != null) {
@@ -336,13 +520,16 @@ public class FFmpegFrameGrabber {
     public void startUnsafe() throws Exception {
         int ret;
         img_convert_ctx = null;
+        picture_scale_ctx = null;
         oc = new AVFormatContext(null);
         video_c = null;
         audio_c = null;
         pkt = new AVPacket();
         pkt2 = new AVPacket();
         sizeof_pkt = pkt.sizeof();
-        got_frame = new int[1];
+        audio_pkt = new AVPacket();
+        got_picture = new int[1];
+        got_samples = new int[1];
         frameGrabbed = false;
         timestamp = 0;
         frameNumber = 0;
@@ -406,6 +593,14 @@ public class FFmpegFrameGrabber {
                 throw new Exception("avcodec_find_decoder() error: Unsupported video format or codec not found: " + video_c.codec_id() + ".");
             }
 
+            if (decoderThreading.getThreadType() != 0) {
+                int threads = decoderThreads > 0 ? decoderThreads : Runtime.getRuntime().availableProcessors();
+                video_c.thread_count(Math.min(threads, MAX_DECODER_THREADS));
+                video_c.thread_type(decoderThreading.getThreadType());
+            } else {
+                video_c.thread_count(1);
+            }
+
             // Open video codec
             if ((ret = avcodec_open2(video_c, codec, (PointerPointer) null)) < 0) {
                 throw new Exception("avcodec_open2() error " + ret + ": Could not open video codec.");
@@ -436,6 +631,12 @@ public class FFmpegFrameGrabber {
             // Assign appropriate parts of buffer to image planes in picture_rgb
             // Note that picture_rgb is an AVFrame, but AVFrame is a superset of AVPicture
             avpicture_fill(new AVPicture(picture_rgb), buffer_rgb, fmt, width, height);
+            rgb_width = width;
+            rgb_height = height;
+
+            // The frames never move once allocated, so the plane pointers can be reused for every sws_scale call
+            picture_ptr = new PointerPointer<BytePointer>(picture);
+            picture_rgb_ptr = new PointerPointer<BytePointer>(picture_rgb);
         }
 
         if (audio_st != null) {
@@ -454,6 +655,18 @@ public class FFmpegFrameGrabber {
             if ((samples_frame = av_frame_alloc()) == null) {
                 throw new Exception("av_frame_alloc() error: Could not allocate audio frame.");
             }
+
+            if (audioResampling) {
+                long layout = audio_c.channel_layout() != 0 ? audio_c.channel_layout() : av_get_default_channel_layout(audio_c.channels());
+                swr_ctx = swr_alloc_set_opts(null, AV_CH_LAYOUT_STEREO, RESAMPLED_SAMPLE_FORMAT, RESAMPLED_SAMPLE_RATE,
+                        layout, audio_c.sample_fmt(), audio_c.sample_rate(), 0, null);
+                if (swr_ctx != null && (ret = swr_init(swr_ctx)) < 0) {
+                    //callers fall back to converting the codec's own format
+                    System.err.println("swr_init() error " + ret + ": audio will not be resampled.");
+                    swr_free(swr_ctx);
+                    swr_ctx = null;
+                }
+            }
         }
     }
 
@@ -462,31 +675,148 @@ public class FFmpegFrameGrabber {
     }
 
     public BufferedImage convertFrame(AVFrame pFrame, int width, int height) {
-        if (image == null) {
-            image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        return convertFrame(pFrame, width, height, null);
+    }
+
+    private BufferedImage convertFrame(AVFrame pFrame, int width, int height, BufferedImage target) {
+        if (!isCompatible(target, width, height)) {
+            if (!isCompatible(image, width, height)) {
+                image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            }
+            target = image;
         }
 
-        // Write pixel data
-        byte[] bytes = new byte[width * height * 3];
-        pFrame.data(0).get(bytes);
-        image.getRaster().setDataElements(0, 0, width, height, bytes);
-        return image;
+        // Write pixel data straight into the backing array of the raster
+        byte[] bytes = ((DataBufferByte) target.getRaster().getDataBuffer()).getData();
+        pFrame.data(0).get(bytes, 0, Math.min(bytes.length, width * height * 3));
+        return target;
+    }
+
+    private static boolean isCompatible(BufferedImage target, int width, int height) {
+        return target != null
+                && target.getType() == BufferedImage.TYPE_3BYTE_BGR
+                && target.getWidth() == width
+                && target.getHeight() == height;
+    }
+
+    /**
+     * Converts the most recently decoded picture. Split out of decoding so
+     * pictures that will never be shown don't pay for the colour conversion.
+     */
+    public BufferedImage processImage() throws AvException {
+        return processImage(null);
     }
 
-    private BufferedImage processImage() throws AvException {
+    /**
+     * Converts the most recently decoded picture into the given image, which
+     * then belongs to the caller. The picture is scaled to fit the output
+     * size in the same pass. Falls back to the shared image if the target
+     * is not a {@code TYPE_3BYTE_BGR} image of the output size.
+     */
+    public BufferedImage processImage(BufferedImage target) throws AvException {
+        Dimension size = outputSize(video_c.width(), video_c.height());
+        if (size.width != rgb_width || size.height != rgb_height) {
+            // Lay the planes out for the new size; the buffer holds a full size picture, so it is always big enough
+            avpicture_fill(new AVPicture(picture_rgb), buffer_rgb, getPixelFormat(), size.width, size.height);
+            rgb_width = size.width;
+            rgb_height = size.height;
+        }
         img_convert_ctx = sws_getCachedContext(img_convert_ctx,
                 video_c.width(), video_c.height(), video_c.pix_fmt(),
-                video_c.width(), video_c.height(), getPixelFormat(), SWS_FAST_BILINEAR,
+                size.width, size.height, getPixelFormat(), SWS_FAST_BILINEAR,
                 null, null, (DoublePointer) null);
         if (img_convert_ctx == null) {
             throw new AvException("sws_getCachedContext() error: Cannot initialize the conversion context.");
         }
 
         // Convert the image from its native format to RGB or GRAY
-        sws_scale(img_convert_ctx, new PointerPointer(picture), picture.linesize(), 0,
-                video_c.height(), new PointerPointer(picture_rgb), picture_rgb.linesize());
+        sws_scale(img_convert_ctx, picture_ptr, picture.linesize(), 0,
+                video_c.height(), picture_rgb_ptr, picture_rgb.linesize());
+
+        return convertFrame(picture_rgb, size.width, size.height, target);
+    }
+
+    /**
+     * Converts the most recently decoded picture into a frame from the pool
+     * set with {@link #setFramePool}, carrying over the timing of the
+     * decoded frame, or just copies the picture into it when conversion is
+     * deferred. Without a pool the decoded frame itself gets the shared
+     * image.
+     *
+     * @return a frame owned by the caller, a {@link PooledFrame} when there
+     * is a pool, or null if the pool stayed empty for the whole timeout
+     */
+    public Frame processFrame(Frame decoded) throws AvException {
+        if (framePool == null) {
+            decoded.image = processImage();
+            return decoded;
+        }
+        PooledFrame frame;
+        try {
+            frame = framePool.acquire(framePoolTimeout, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new AvException("Interrupted waiting for a free frame", ex);
+        }
+        if (frame == null) {
+            return null;
+        }
+        try {
+            if (deferredConversion) {
+                copyPicture(frame);
+            } else {
+                Dimension size = outputSize(video_c.width(), video_c.height());
+                if (!isCompatible(frame.image, size.width, size.height)) {
+                    //the stream or output changed size; the pool's images are replaced as they come round
+                    frame.image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_3BYTE_BGR);
+                }
+                processImage(frame.image);
+            }
+        } catch (AvException ex) {
+            frame.release();
+            throw ex;
+        }
+        frame.keyFrame = decoded.keyFrame;
+        frame.timestamp = decoded.timestamp;
+        frame.duration = decoded.duration;
+        return frame;
+    }
 
-        return convertFrame(picture_rgb, video_c.width(), video_c.height());
+    private void copyPicture(PooledFrame frame) throws AvException {
+        Dimension size = outputSize(picture.width(), picture.height());
+        int format = picture.format();
+        if (frame.slot == null || !frame.slot.getOwner().fits(format, size.width, size.height)) {
+            if (picture_slabs == null || !picture_slabs.fits(format, size.width, size.height)) {
+                if (picture_slabs != null) {
+                    picture_slabs.retire();
+                }
+                picture_slabs = new PictureSlabs(format, size.width, size.height);
+            }
+            if (frame.slot != null) {
+                frame.slot.free();
+                frame.slot = null;
+            }
+            if (frame.picture == null && (frame.picture = av_frame_alloc()) == null) {
+                throw new AvException("av_frame_alloc() error: Could not allocate deferred picture frame.");
+            }
+            frame.slot = picture_slabs.take(frame.picture);
+        }
+        AVFrame target = frame.picture;
+        if (size.width == picture.width() && size.height == picture.height()) {
+            if (av_frame_copy(target, picture) < 0) {
+                throw new AvException("av_frame_copy() error: Could not copy the decoded picture.");
+            }
+            return;
+        }
+        picture_scale_ctx = sws_getCachedContext(picture_scale_ctx,
+                picture.width(), picture.height(), picture.format(),
+                size.width, size.height, picture.format(), SWS_BILINEAR,
+                null, null, (DoublePointer) null);
+        if (picture_scale_ctx == null) {
+            throw new AvException("sws_getCachedContext() error: Cannot scale pictures in this pixel format.");
+        }
+        sws_scale(picture_scale_ctx, picture_ptr, picture.linesize(), 0,
+                picture.height(), frame.getPicturePointers(), target.linesize());
     }
 
     public BufferedImage grab() throws AvException {
@@ -518,14 +848,9 @@ public class FFmpegFrameGrabber {
         frame.samples = null;
         if (frameGrabbed) {
             frameGrabbed = false;
-            if (processImage) {
-                frame.image = processImage();
-            }
-            frame.timestamp = calcTimestamp(pkt.pts(), video_st.time_base());
+            fillVideoFrame(frame, pkt);
             timestamp = frame.timestamp;
-            frame.duration = calcTimestamp(pkt.duration(), video_st.time_base());
-            frame.keyFrame = picture.key_frame() != 0;
-            return frame;
+            return processImage ? processFrame(frame) : frame;
         }
         boolean done = false;
         while (!done) {
@@ -546,22 +871,17 @@ public class FFmpegFrameGrabber {
             // Is this a packet from the video stream?
             if (video_st != null && pkt.stream_index() == video_st.index()
                     && (!keyFrames || pkt.flags() == AV_PKT_FLAG_KEY)) {
-                // Decode video frame
-                int len = avcodec_decode_video2(video_c, picture, got_frame, pkt);
-
                 // Did we get a video frame?
-                if (len >= 0 && got_frame[0] != 0
+                if (decodePicture(pkt)
                         && (!keyFrames || picture.pict_type() == AV_PICTURE_TYPE_I)) {
-                    frame.timestamp = calcTimestamp(pkt.pts(), video_st.time_base());
-                    frame.duration = calcTimestamp(pkt.duration(), video_st.time_base());
+                    fillVideoFrame(frame, pkt);
                     timestamp = frame.timestamp;
                     // best guess, AVCodecContext.frame_number = number of decoded frames...
                     frameNumber = (int) (timestamp * getFrameRate() / 1000000L);
                     if (processImage) {
-                        frame.image = processImage();
+                        frame = processFrame(frame);
                     }
                     done = true;
-                    frame.keyFrame = picture.key_frame() != 0;
                 } else if (pkt.data() == null && pkt.size() == 0) {
                     return null;
                 }
@@ -571,67 +891,11 @@ public class FFmpegFrameGrabber {
                     // pkt2.put(pkt);
                     BytePointer.memcpy(pkt2, pkt, sizeof_pkt);
                 }
-                avcodec_get_frame_defaults(samples_frame);
-                // Decode audio frame
-                int len = avcodec_decode_audio4(audio_c, samples_frame, got_frame, pkt2);
-                if (len <= 0) {
-                    // On error, trash the whole packet
-                    pkt2.size(0);
-                } else {
-                    pkt2.data(pkt2.data().position(len));
-                    pkt2.size(pkt2.size() - len);
-                    if (got_frame[0] != 0) {
-                        frame.timestamp = calcTimestamp(pkt2.pts(), audio_st.time_base());
-                        frame.duration = calcTimestamp(pkt2.duration(), audio_st.time_base());
-                        timestamp = frame.timestamp;
-                        /* if a frame has been decoded, output it */
-                        done = true;
-                        int sample_format = samples_frame.format();
-                        int planes = av_sample_fmt_is_planar(sample_format) != 0 ? (int) samples_frame.channels() : 1;
-                        int data_size = av_samples_get_buffer_size((IntPointer) null, audio_c.channels(),
-                                samples_frame.nb_samples(), audio_c.sample_fmt(), 1) / planes;
-                        if (samples_buf == null || samples_buf.length != planes) {
-                            samples_ptr = new BytePointer[planes];
-                            samples_buf = new Buffer[planes];
-                        }
-                        frame.keyFrame = samples_frame.key_frame() != 0;
-                        frame.sampleRate = audio_c.sample_rate();
-                        frame.audioChannels = audio_c.channels();
-                        frame.samples = samples_buf;
-                        int sample_size = data_size / av_get_bytes_per_sample(sample_format);
-                        for (int i = 0; i < planes; i++) {
-                            BytePointer p = samples_frame.data(i);
-                            if (!p.equals(samples_ptr[i]) || samples_ptr[i].capacity() < data_size) {
-                                samples_ptr[i] = p.capacity(data_size);
-                                ByteBuffer b = p.asBuffer();
-                                switch (sample_format) {
-                                    case AV_SAMPLE_FMT_U8:
-                                    case AV_SAMPLE_FMT_U8P:
-                                        samples_buf[i] = b;
-                                        break;
-                                    case AV_SAMPLE_FMT_S16:
-                                    case AV_SAMPLE_FMT_S16P:
-                                        samples_buf[i] = b.asShortBuffer();
-                                        break;
-                                    case AV_SAMPLE_FMT_S32:
-                                    case AV_SAMPLE_FMT_S32P:
-                                        samples_buf[i] = b.asIntBuffer();
-                                        break;
-                                    case AV_SAMPLE_FMT_FLT:
-                                    case AV_SAMPLE_FMT_FLTP:
-                                        samples_buf[i] = b.asFloatBuffer();
-                                        break;
-                                    case AV_SAMPLE_FMT_DBL:
-                                    case AV_SAMPLE_FMT_DBLP:
-                                        samples_buf[i] = b.asDoubleBuffer();
-                                        break;
-                                    default:
-                                        assert false;
-                                }
-                            }
-                            samples_buf[i].position(0).limit(sample_size);
-                        }
-                    }
+                if (decodeSamples(pkt2)) {
+                    fillAudioFrame(frame, pkt2);
+                    timestamp = frame.timestamp;
+                    /* if a frame has been decoded, output it */
+                    done = true;
                 }
             }
 
@@ -643,6 +907,286 @@ public class FFmpegFrameGrabber {
         return frame;
     }
 
+    /**
+     * Reads the next packet of either stream without decoding it. The packet
+     * owns its data afterwards and must be handed back to
+     * {@link #releasePacket(AVPacket)} once decoded.
+     *
+     * @return false at the end of the input
+     */
+    public boolean readPacket(AVPacket packet) throws AvException {
+        if (oc == null || oc.isNull()) {
+            throw new AvException("Could not read: No AVFormatContext. (Has start() been called?)");
+        }
+        if (av_read_frame(oc, packet) < 0) {
+            return false;
+        }
+        //the demuxer may reuse its buffer on the next read, and the packet is decoded on another thread
+        av_dup_packet(packet);
+        return true;
+    }
+
+    /**
+     * Marks a packet as the end of its stream; decoding it drains whatever
+     * the decoder is still holding.
+     */
+    public static void endOfStreamPacket(AVPacket packet) {
+        av_init_packet(packet);
+        packet.data(null);
+        packet.size(0);
+    }
+
+    public static void releasePacket(AVPacket packet) {
+        if (packet.size() > 0) {
+            av_free_packet(packet);
+        }
+    }
+
+    public boolean isVideoPacket(AVPacket packet) {
+        return video_st != null && packet.stream_index() == video_st.index();
+    }
+
+    public boolean isAudioPacket(AVPacket packet) {
+        return audio_st != null && packet.stream_index() == audio_st.index();
+    }
+
+    /**
+     * Decodes one video packet. Only touches the video decoder state, so it
+     * may run on a different thread than {@link #readPacket(AVPacket)} and
+     * {@link #decodeAudio()}. The picture is not converted;
+     * call {@link #processImage()} for pictures that will be shown.
+     *
+     * @return the decoded frame without an image, or null if the decoder
+     * needs more data before it can produce a picture
+     */
+    public Frame decodeVideo(AVPacket packet) throws AvException {
+        if (!decodePicture(packet)) {
+            return null;
+        }
+        Frame frame = new Frame();
+        fillVideoFrame(frame, packet);
+        return frame;
+    }
+
+    /**
+     * Starts decoding an audio packet. The packet holds several frames for
+     * most codecs; pull them with {@link #decodeAudio()}, and keep the packet
+     * unreleased until that returns null. An {@link #endOfStreamPacket(AVPacket)}
+     * drains the decoder instead.
+     */
+    public void setAudioPacket(AVPacket packet) {
+        BytePointer.memcpy(audio_pkt, packet, sizeof_pkt);
+        audio_draining = packet.size() == 0;
+    }
+
+    /**
+     * Decodes the next audio frame of the current audio packet. The sample
+     * buffers of the returned frame are reused by the next call.
+     *
+     * @return the frame, or null once the packet is used up
+     */
+    public Frame decodeAudio() throws AvException {
+        if (audio_draining) {
+            if (!drainSamples()) {
+                return null;
+            }
+            Frame frame = new Frame();
+            fillAudioFrame(frame, audio_pkt);
+            return frame;
+        }
+        while (audio_pkt.size() > 0) {
+            if (decodeSamples(audio_pkt)) {
+                Frame frame = new Frame();
+                fillAudioFrame(frame, audio_pkt);
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Repositions the demuxer only. The decoders must be flushed by the
+     * threads that own them before decoding packets read after the seek.
+     */
+    public void seek(long timestamp) throws AvException {
+        int ret;
+        if (oc != null) {
+            timestamp = timestamp * AV_TIME_BASE / 1000000L;
+            if (oc.start_time() != AV_NOPTS_VALUE) {
+                timestamp += oc.start_time();
+            }
+            if ((ret = avformat_seek_file(oc, -1, Long.MIN_VALUE, timestamp, Long.MAX_VALUE, AVSEEK_FLAG_BACKWARD)) < 0) {
+                throw new AvException("avformat_seek_file() error " + ret + ": Could not seek file to timestamp " + timestamp + ".");
+            }
+        }
+    }
+
+    /**
+     * Sets which video frames the decoder may skip without decoding, one of
+     * the AVDISCARD_* levels. Only call from the thread decoding video.
+     */
+    public void setVideoDiscard(int discard) {
+        if (video_c != null) {
+            video_c.skip_frame(discard);
+        }
+    }
+
+    public void flushVideo() {
+        if (video_c != null) {
+            avcodec_flush_buffers(video_c);
+        }
+    }
+
+    public void flushAudio() {
+        if (audio_c != null) {
+            avcodec_flush_buffers(audio_c);
+        }
+        if (swr_ctx != null) {
+            //drops the samples held back for filtering
+            swr_init(swr_ctx);
+        }
+    }
+
+    private boolean decodePicture(AVPacket packet) {
+        int len = avcodec_decode_video2(video_c, picture, got_picture, packet);
+        return len >= 0 && got_picture[0] != 0;
+    }
+
+    private void fillVideoFrame(Frame frame, AVPacket packet) {
+        frame.timestamp = pictureTimestamp(packet);
+        frame.duration = calcTimestamp(av_frame_get_pkt_duration(picture), video_st.time_base());
+        frame.keyFrame = picture.key_frame() != 0;
+    }
+
+    /**
+     * Decodes the next audio frame from the packet and advances the packet
+     * past the bytes consumed. The whole packet is dropped on error.
+     */
+    private boolean decodeSamples(AVPacket packet) {
+        av_frame_unref(samples_frame);
+        // Decode audio frame
+        int len = avcodec_decode_audio4(audio_c, samples_frame, got_samples, packet);
+        if (len <= 0) {
+            // On error, trash the whole packet
+            packet.size(0);
+            return false;
+        }
+        packet.data(packet.data().position(len));
+        packet.size(packet.size() - len);
+        return got_samples[0] != 0;
+    }
+
+    private boolean drainSamples() {
+        av_frame_unref(samples_frame);
+        int len = avcodec_decode_audio4(audio_c, samples_frame, got_samples, audio_pkt);
+        if (len < 0 || got_samples[0] == 0) {
+            audio_draining = false;
+            return false;
+        }
+        return true;
+    }
+
+    private void fillAudioFrame(Frame frame, AVPacket packet) {
+        //drained frames come with an empty packet, so fall back on the frame's own timing
+        long pts = packet.pts() != AV_NOPTS_VALUE ? packet.pts() : av_frame_get_best_effort_timestamp(samples_frame);
+        frame.timestamp = calcPosition(pts, audio_st.time_base());
+        frame.duration = packet.duration() > 0 ? calcTimestamp(packet.duration(), audio_st.time_base())
+                : 1_000_000L * samples_frame.nb_samples() / audio_c.sample_rate();
+        if (swr_ctx != null) {
+            resampleAudioFrame(frame);
+            return;
+        }
+        int sample_format = samples_frame.format();
+        int planes = av_sample_fmt_is_planar(sample_format) != 0 ? (int) samples_frame.channels() : 1;
+        int data_size = av_samples_get_buffer_size((IntPointer) null, audio_c.channels(),
+                samples_frame.nb_samples(), audio_c.sample_fmt(), 1) / planes;
+        if (samples_buf == null || samples_buf.length != planes) {
+            samples_ptr = new BytePointer[planes];
+            samples_buf = new Buffer[planes];
+        }
+        frame.keyFrame = samples_frame.key_frame() != 0;
+        frame.sampleRate = audio_c.sample_rate();
+        frame.audioChannels = audio_c.channels();
+        frame.samples = samples_buf;
+        int sample_size = data_size / av_get_bytes_per_sample(sample_format);
+        for (int i = 0; i < planes; i++) {
+            BytePointer p = samples_frame.data(i);
+            if (!p.equals(samples_ptr[i]) || samples_ptr[i].capacity() < data_size) {
+                samples_ptr[i] = p.capacity(data_size);
+                ByteBuffer b = p.asBuffer();
+                switch (sample_format) {
+                    case AV_SAMPLE_FMT_U8:
+                    case AV_SAMPLE_FMT_U8P:
+                        samples_buf[i] = b;
+                        break;
+                    case AV_SAMPLE_FMT_S16:
+                    case AV_SAMPLE_FMT_S16P:
+                        samples_buf[i] = b.asShortBuffer();
+                        break;
+                    case AV_SAMPLE_FMT_S32:
+                    case AV_SAMPLE_FMT_S32P:
+                        samples_buf[i] = b.asIntBuffer();
+                        break;
+                    case AV_SAMPLE_FMT_FLT:
+                    case AV_SAMPLE_FMT_FLTP:
+                        samples_buf[i] = b.asFloatBuffer();
+                        break;
+                    case AV_SAMPLE_FMT_DBL:
+                    case AV_SAMPLE_FMT_DBLP:
+                        samples_buf[i] = b.asDoubleBuffer();
+                        break;
+                    default:
+                        assert false;
+                }
+            }
+            samples_buf[i].position(0).limit(sample_size);
+        }
+    }
+
+    private void resampleAudioFrame(Frame frame) {
+        int inSamples = samples_frame.nb_samples();
+        int maxSamples = (int) av_rescale_rnd(swr_get_delay(swr_ctx, audio_c.sample_rate()) + inSamples,
+                RESAMPLED_SAMPLE_RATE, audio_c.sample_rate(), AV_ROUND_UP);
+        if (maxSamples > resampled_capacity) {
+            if (resampled_buf != null) {
+                av_free(resampled_buf);
+            }
+            resampled_capacity = maxSamples;
+            resampled_buf = new BytePointer(av_malloc(maxSamples * RESAMPLED_FRAME_BYTES));
+            resampled_ptr = new PointerPointer<BytePointer>(resampled_buf);
+            resampled_samples[0] = resampled_buf.capacity(maxSamples * RESAMPLED_FRAME_BYTES).asBuffer();
+        }
+        int converted = swr_convert(swr_ctx, resampled_ptr, maxSamples, samples_frame.extended_data(), inSamples);
+        frame.keyFrame = samples_frame.key_frame() != 0;
+        frame.sampleRate = RESAMPLED_SAMPLE_RATE;
+        frame.audioChannels = RESAMPLED_CHANNELS;
+        frame.samples = resampled_samples;
+        resampled_samples[0].position(0).limit(Math.max(converted, 0) * RESAMPLED_FRAME_BYTES);
+    }
+
+    /**
+     * Reordering and frame threading mean the picture that comes out of the
+     * decoder is rarely the one in the packet that went in, so the timestamp
+     * has to come from the picture itself.
+     */
+    private long pictureTimestamp(AVPacket packet) {
+        long pts = av_frame_get_best_effort_timestamp(picture);
+        if (pts == AV_NOPTS_VALUE) {
+            pts = packet.pts();
+        }
+        return calcPosition(pts, video_st.time_base());
+    }
+
+    /**
+     * Converts a stream timestamp to the position {@link #seek(long)} takes,
+     * counted from the container's start time rather than from zero, so it
+     * can be compared with seek targets and the keyframe index.
+     */
+    private long calcPosition(long pts, AVRational time_base) {
+        long start = oc.start_time() == AV_NOPTS_VALUE ? 0 : oc.start_time() * 1000000L / AV_TIME_BASE;
+        return calcTimestamp(pts, time_base) - start;
+    }
+
     private long calcTimestamp(long pts, AVRational time_base) {
         return 1_000_000L * pts * time_base.num() / time_base.den();
     }
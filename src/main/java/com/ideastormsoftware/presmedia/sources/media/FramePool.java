@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.sources.media;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A bounded number of reusable video frames, each with an image to decode
+ * into. Images are only created as frames are first needed, and the
+ * capacity caps how much image memory the pool can hold. The capacity may
+ * be changed while frames are out, up to the maximum given at
+ * construction; surplus frames are dropped as they come back. Frames come back
+ * when their last reference is released, and are handed out again in the
+ * order they came back, so a frame just taken off screen is the last to be
+ * written over. Frames whose image is made later, such as those holding a
+ * deferred picture, come from a pool without an image factory.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public class FramePool {
+
+    private final BlockingQueue<PooledFrame> available;
+    private final Supplier<BufferedImage> imageFactory;
+    private final int maximumCapacity;
+    private volatile int capacity;
+    private final AtomicInteger created = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    public FramePool(int capacity, Supplier<BufferedImage> imageFactory) {
+        this(capacity, capacity, imageFactory);
+    }
+
+    /**
+     * @param imageFactory makes the image for each new frame, or null for
+     * frames without one
+     */
+    public FramePool(int capacity, int maximumCapacity, Supplier<BufferedImage> imageFactory) {
+        this.available = new ArrayBlockingQueue<>(maximumCapacity);
+        this.imageFactory = imageFactory;
+        this.maximumCapacity = maximumCapacity;
+        this.capacity = Math.min(capacity, maximumCapacity);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Grows or shrinks the pool, within its maximum. Shrinking frees idle
+     * frames at once and frames in use as they are released.
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = Math.max(1, Math.min(capacity, maximumCapacity));
+        PooledFrame frame;
+        while (created.get() > this.capacity && (frame = available.poll()) != null) {
+            discard(frame);
+        }
+    }
+
+    /**
+     * @return a frame with a reference count of one, or null if none is free
+     */
+    public PooledFrame tryAcquire() {
+        PooledFrame frame = available.poll();
+        if (frame == null) {
+            frame = create();
+        }
+        return frame == null ? null : frame.acquired();
+    }
+
+    /**
+     * Waits for a frame to be released if the pool is exhausted.
+     *
+     * @return a frame with a reference count of one, or null if none came
+     * free within the timeout
+     */
+    public PooledFrame acquire(long timeout, TimeUnit unit) throws InterruptedException {
+        PooledFrame frame = tryAcquire();
+        if (frame == null) {
+            frame = available.poll(timeout, unit);
+            if (frame != null) {
+                frame.acquired();
+            }
+        }
+        return frame;
+    }
+
+    private PooledFrame create() {
+        int count;
+        do {
+            count = created.get();
+            if (count >= capacity) {
+                return null;
+            }
+        } while (!created.compareAndSet(count, count + 1));
+        return new PooledFrame(this, imageFactory == null ? null : imageFactory.get());
+    }
+
+    /**
+     * Frees the native memory of every frame in the pool, and of the frames
+     * still held as they are released.
+     */
+    public void close() {
+        closed = true;
+        disposeAvailable();
+    }
+
+    void recycle(PooledFrame frame) {
+        if (created.get() > capacity) {
+            discard(frame);
+            return;
+        }
+        available.offer(frame);
+        if (closed) {
+            disposeAvailable();
+        }
+    }
+
+    private void discard(PooledFrame frame) {
+        created.decrementAndGet();
+        frame.dispose();
+    }
+
+    private void disposeAvailable() {
+        PooledFrame frame;
+        while ((frame = available.poll()) != null) {
+            frame.dispose();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.sources.media;
+
+/**
+ * Works out how many decoded frames to keep queued. The queue should hold a
+ * target span of video, plus enough to ride out the decoder's recent
+ * stalls, but never more frames of the current size than fit in the memory
+ * budget.
+ *
+ * Stalls are tracked as a debt: each frame that takes longer to decode than
+ * it plays for adds the difference, each faster frame pays some back. The
+ * deepest recent debt is how far the queue would have drained, so the
+ * target grows by twice that. The peak halves every few seconds without a
+ * new one, so the queue shrinks again once the decoder settles down.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public class FrameQueueSizer {
+
+    private static final long PEAK_HALF_LIFE_NANOS = 5_000_000_000L;
+
+    private final int minimumFrames;
+    private final int maximumFrames;
+    private volatile long memoryBudget;
+    private volatile long bufferMicros;
+    private long frameBytes = 1;
+    private double frameRate = 30;
+    private long debt = 0;
+    private long peakDebt = 0;
+    private long peakTime = System.nanoTime();
+
+    /**
+     * @param minimumFrames frames kept regardless of the budget, enough to
+     * start playback
+     * @param maximumFrames the most frames ever kept
+     * @param memoryBudget bytes the queued frames may take
+     * @param bufferMicros the span of video to keep queued when decoding is
+     * steady
+     */
+    public FrameQueueSizer(int minimumFrames, int maximumFrames, long memoryBudget, long bufferMicros) {
+        this.minimumFrames = Math.min(minimumFrames, maximumFrames);
+        this.maximumFrames = maximumFrames;
+        this.memoryBudget = memoryBudget;
+        this.bufferMicros = bufferMicros;
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public void setBufferMicros(long bufferMicros) {
+        this.bufferMicros = bufferMicros;
+    }
+
+    /**
+     * @param frameBytes the memory one queued frame takes
+     */
+    public synchronized void setFrameFormat(long frameBytes, double frameRate) {
+        this.frameBytes = Math.max(frameBytes, 1);
+        if (frameRate > 0 && Double.isFinite(frameRate)) {
+            this.frameRate = frameRate;
+        }
+    }
+
+    /**
+     * @param decodeMicros how long the decoder spent on a frame
+     * @param frameDuration how long the frame plays for
+     */
+    public synchronized void recordDecode(long decodeMicros, long frameDuration) {
+        if (frameDuration <= 0) {
+            frameDuration = (long) (1_000_000 / frameRate);
+        }
+        debt = Math.max(0, debt + decodeMicros - frameDuration);
+        long now = System.nanoTime();
+        while (now - peakTime > PEAK_HALF_LIFE_NANOS && peakDebt > 0) {
+            peakDebt /= 2;
+            peakTime += PEAK_HALF_LIFE_NANOS;
+        }
+        if (debt >= peakDebt) {
+            peakDebt = debt;
+            peakTime = now;
+        }
+    }
+
+    /**
+     * @return how many frames to keep queued now
+     */
+    public synchronized int getCapacity() {
+        long target = bufferMicros + 2 * peakDebt;
+        long wanted = (long) Math.ceil(target * frameRate / 1_000_000);
+        long affordable = memoryBudget / frameBytes;
+        return (int) Math.max(minimumFrames, Math.min(Math.min(wanted, affordable), maximumFrames));
+    }
+}
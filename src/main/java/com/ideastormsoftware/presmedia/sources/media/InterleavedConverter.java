@@ -24,17 +24,45 @@ import java.nio.ByteBuffer;
  */
 public class InterleavedConverter extends AudioConverter {
 
+    private final int bitSampleSize;
+    private final boolean signed;
+
+    public InterleavedConverter() {
+        this(8, false);
+    }
+
+    /**
+     * For samples that are already interleaved little-endian PCM in a
+     * ByteBuffer, which only need copying out.
+     */
+    public InterleavedConverter(int bitSampleSize, boolean signed) {
+        this.bitSampleSize = bitSampleSize;
+        this.signed = signed;
+    }
+
+    @Override
+    public int getSampleSizeInBits() {
+        return bitSampleSize;
+    }
+
+    @Override
+    public boolean isSigned() {
+        return signed;
+    }
+
+    @Override
+    public int outputSize(Buffer[] samples) {
+        return samples[0].limit();
+    }
+
     @Override
-    public byte[] prepareSamplesForPlayback(Buffer[] samples) {
+    public int convert(Buffer[] samples, byte[] target) {
         ByteBuffer buffer = (ByteBuffer) samples[0];
-        byte[] bufferData;
-        if (buffer.hasArray()) {
-            bufferData = buffer.array();
-        } else {
-            bufferData = new byte[buffer.limit()];
-            buffer.get(bufferData);
-        }
-        return bufferData;
+        int length = buffer.limit();
+        int position = buffer.position();
+        buffer.position(0);
+        buffer.get(target, 0, length);
+        buffer.position(position);
+        return length;
     }
-    
 }
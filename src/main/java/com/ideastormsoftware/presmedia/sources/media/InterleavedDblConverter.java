@@ -22,13 +22,20 @@ import java.nio.DoubleBuffer;
  *
  * @author Phil Hayward <phil@pjhayward.net>
  */
-public class InterleavedDblConverter extends InterleavedConverter {
+public class InterleavedDblConverter extends AudioConverter {
 
     @Override
-    public byte[] prepareSamplesForPlayback(Buffer[] samples) {
+    public int outputSize(Buffer[] samples) {
+        return samples[0].limit() * 2;
+    }
+
+    @Override
+    public int convert(Buffer[] samples, byte[] target) {
         DoubleBuffer buffer = (DoubleBuffer) samples[0];
-        Buffer[] convertedSamples = {convertDblToShortBuffer(buffer)};
-        return super.prepareSamplesForPlayback(convertedSamples);
+        int count = buffer.limit();
+        for (int i = 0; i < count; i++) {
+            putShort(target, i * 2, dblToShort(buffer.get(i)));
+        }
+        return count * 2;
     }
-    
 }
@@ -22,13 +22,20 @@ import java.nio.FloatBuffer;
  *
  * @author Phil Hayward <phil@pjhayward.net>
  */
-public class InterleavedFltConverter extends InterleavedConverter {
+public class InterleavedFltConverter extends AudioConverter {
 
     @Override
-    public byte[] prepareSamplesForPlayback(Buffer[] samples) {
-        FloatBuffer buffer = (FloatBuffer) samples[0];
-        Buffer[] convertedSamples = {convertFltToShortBuffer(buffer)};
-        return super.prepareSamplesForPlayback(convertedSamples);
+    public int outputSize(Buffer[] samples) {
+        return samples[0].limit() * 2;
     }
 
+    @Override
+    public int convert(Buffer[] samples, byte[] target) {
+        FloatBuffer buffer = (FloatBuffer) samples[0];
+        int count = buffer.limit();
+        for (int i = 0; i < count; i++) {
+            putShort(target, i * 2, fltToShort(buffer.get(i)));
+        }
+        return count * 2;
+    }
 }
@@ -22,13 +22,20 @@ import java.nio.IntBuffer;
  *
  * @author Phil Hayward <phil@pjhayward.net>
  */
-public class InterleavedIntConverter extends InterleavedConverter {
+public class InterleavedIntConverter extends AudioConverter {
 
     @Override
-    public byte[] prepareSamplesForPlayback(Buffer[] samples) {
+    public int outputSize(Buffer[] samples) {
+        return samples[0].limit() * 2;
+    }
+
+    @Override
+    public int convert(Buffer[] samples, byte[] target) {
         IntBuffer buffer = (IntBuffer) samples[0];
-        Buffer[] convertedSamples = {convertIntToShortBuffer(buffer)};
-        return super.prepareSamplesForPlayback(convertedSamples);
+        int count = buffer.limit();
+        for (int i = 0; i < count; i++) {
+            putShort(target, i * 2, intToShort(buffer.get(i)));
+        }
+        return count * 2;
     }
-    
 }
@@ -17,19 +17,25 @@ package com.ideastormsoftware.presmedia.sources.media;
 
 import java.nio.Buffer;
 import java.nio.ShortBuffer;
-import org.bytedeco.javacpp.ShortPointer;
 
 /**
  *
  * @author Phil Hayward <phil@pjhayward.net>
  */
-public class InterleavedShortConverter extends InterleavedConverter {
+public class InterleavedShortConverter extends AudioConverter {
 
     @Override
-    public byte[] prepareSamplesForPlayback(Buffer[] samples) {
-        ShortPointer ptr = new ShortPointer((ShortBuffer) samples[0]);
-        samples[0] = ptr.asByteBuffer();
-        return super.prepareSamplesForPlayback(samples);
+    public int outputSize(Buffer[] samples) {
+        return samples[0].limit() * 2;
+    }
+
+    @Override
+    public int convert(Buffer[] samples, byte[] target) {
+        ShortBuffer buffer = (ShortBuffer) samples[0];
+        int count = buffer.limit();
+        for (int i = 0; i < count; i++) {
+            putShort(target, i * 2, buffer.get(i));
+        }
+        return count * 2;
     }
-    
 }
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.sources.media;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import org.bytedeco.javacpp.PointerPointer;
+
+import static org.bytedeco.javacpp.avcodec.*;
+import static org.bytedeco.javacpp.avformat.*;
+import static org.bytedeco.javacpp.avutil.*;
+
+/**
+ * Positions of the video keyframes in a media file, in the same microsecond
+ * positions {@link FFmpegFrameGrabber#seek(long)} takes. Building one only
+ * reads packet headers, nothing is decoded, and the result is cached on disk
+ * under a hash of the file contents so it survives renames and is rebuilt
+ * when the file changes.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public class KeyframeIndex {
+
+    private static final int CACHE_VERSION = 1;
+    //hashing the whole file would cost as much as scanning it, the ends and the length identify it well enough
+    private static final int HASH_SAMPLE_BYTES = 1 << 20;
+    private static final File CACHE_DIR = new File(System.getProperty("user.home"), ".presmedia" + File.separator + "keyframes");
+
+    private final long[] positions;
+
+    private KeyframeIndex(long[] positions) {
+        this.positions = positions;
+    }
+
+    /**
+     * Loads the cached index for the file, scanning it and caching the
+     * result if there is none. Slow for large uncached files, so call it
+     * off the playback threads.
+     */
+    public static KeyframeIndex forFile(String path) throws IOException, AvException {
+        File cached = new File(CACHE_DIR, contentHash(new File(path)) + ".idx");
+        KeyframeIndex index = read(cached);
+        if (index == null) {
+            index = scan(path);
+            try {
+                index.write(cached);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return index;
+    }
+
+    public boolean isEmpty() {
+        return positions.length == 0;
+    }
+
+    public int size() {
+        return positions.length;
+    }
+
+    /**
+     * @return the last keyframe at or before the position, or the first
+     * keyframe if there is none before it
+     */
+    public long previous(long position) {
+        int i = Arrays.binarySearch(positions, position);
+        if (i >= 0) {
+            return positions[i];
+        }
+        int insertion = -i - 1;
+        return positions[Math.max(insertion - 1, 0)];
+    }
+
+    /**
+     * @return the first keyframe at or after the position, or the last
+     * keyframe if there is none after it
+     */
+    public long next(long position) {
+        int i = Arrays.binarySearch(positions, position);
+        if (i >= 0) {
+            return positions[i];
+        }
+        int insertion = -i - 1;
+        return positions[Math.min(insertion, positions.length - 1)];
+    }
+
+    public long nearest(long position) {
+        long before = previous(position);
+        long after = next(position);
+        return position - before <= after - position ? before : after;
+    }
+
+    private static KeyframeIndex scan(String path) throws AvException {
+        AVFormatContext oc = new AVFormatContext(null);
+        if (avformat_open_input(oc, path, null, (AVDictionary) null) < 0) {
+            throw new AvException("Could not open input \"" + path + "\" to index keyframes.");
+        }
+        AVPacket pkt = new AVPacket();
+        try {
+            if (avformat_find_stream_info(oc, (PointerPointer) null) < 0) {
+                throw new AvException("Could not find stream information for \"" + path + "\".");
+            }
+            AVStream video_st = null;
+            for (int i = 0; i < oc.nb_streams() && video_st == null; i++) {
+                if (oc.streams(i).codec().codec_type() == AVMEDIA_TYPE_VIDEO) {
+                    video_st = oc.streams(i);
+                }
+            }
+            if (video_st == null) {
+                return new KeyframeIndex(new long[0]);
+            }
+            AVRational time_base = video_st.time_base();
+            long startTime = oc.start_time() == AV_NOPTS_VALUE ? 0 : oc.start_time() * 1000000L / AV_TIME_BASE;
+            long[] found = new long[256];
+            int count = 0;
+            while (av_read_frame(oc, pkt) >= 0) {
+                try {
+                    if (pkt.stream_index() != video_st.index() || (pkt.flags() & AV_PKT_FLAG_KEY) == 0) {
+                        continue;
+                    }
+                    long pts = pkt.pts() != AV_NOPTS_VALUE ? pkt.pts() : pkt.dts();
+                    if (pts == AV_NOPTS_VALUE) {
+                        continue;
+                    }
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = 1_000_000L * pts * time_base.num() / time_base.den() - startTime;
+                } finally {
+                    av_free_packet(pkt);
+                }
+            }
+            long[] positions = Arrays.copyOf(found, count);
+            Arrays.sort(positions);
+            return new KeyframeIndex(positions);
+        } finally {
+            avformat_close_input(oc);
+        }
+    }
+
+    private static KeyframeIndex read(File cached) {
+        if (!cached.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cached)))) {
+            if (in.readInt() != CACHE_VERSION) {
+                return null;
+            }
+            long[] positions = new long[in.readInt()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = in.readLong();
+            }
+            return new KeyframeIndex(positions);
+        } catch (IOException e) {
+            //unreadable cache entries are just rebuilt
+            return null;
+        }
+    }
+
+    private void write(File cached) throws IOException {
+        if (!CACHE_DIR.isDirectory() && !CACHE_DIR.mkdirs()) {
+            throw new IOException("Could not create keyframe cache directory " + CACHE_DIR);
+        }
+        File partial = new File(cached.getPath() + ".part");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partial)))) {
+            out.writeInt(CACHE_VERSION);
+            out.writeInt(positions.length);
+            for (long position : positions) {
+                out.writeLong(position);
+            }
+        }
+        if (!partial.renameTo(cached)) {
+            partial.delete();
+            throw new IOException("Could not write keyframe cache " + cached);
+        }
+    }
+
+    private static String contentHash(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            long length = in.length();
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                digest.update((byte) (length >>> shift));
+            }
+            byte[] buffer = new byte[(int) Math.min(HASH_SAMPLE_BYTES, length)];
+            in.readFully(buffer);
+            digest.update(buffer);
+            in.seek(length - buffer.length);
+            in.readFully(buffer);
+            digest.update(buffer);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 not available", e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.sources.media;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.PointerPointer;
+
+import static org.bytedeco.javacpp.avcodec.*;
+import static org.bytedeco.javacpp.avutil.*;
+import static org.bytedeco.javacpp.swscale.*;
+
+/**
+ * Scales and colour-converts deferred pictures in a single sws_scale pass,
+ * straight to the size they will be drawn at. Each scaler has one output
+ * size and alternates between two images, so keep one per display size; a
+ * painter still drawing one frame isn't torn by the conversion of the next.
+ * The last conversion is remembered, so asking for the same frame twice is
+ * free.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public class PictureScaler {
+
+    private final int width;
+    private final int height;
+    private SwsContext context;
+    private AVFrame output;
+    private PointerPointer<BytePointer> outputPointers;
+    private BytePointer outputBuffer;
+    private final BufferedImage[] images = new BufferedImage[2];
+    private int current = 0;
+    private PooledFrame lastFrame;
+    private long lastGeneration;
+    private boolean released = false;
+
+    public PictureScaler(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return the frame's picture at this scaler's size, left intact until
+     * the conversion after next, or null if the frame has no picture or the
+     * scaler has been released. The caller must hold a reference to the
+     * frame.
+     */
+    public synchronized BufferedImage convert(PooledFrame frame) throws AvException {
+        AVFrame picture = frame.getPicture();
+        if (released || picture == null) {
+            return null;
+        }
+        if (frame == lastFrame && frame.getGeneration() == lastGeneration) {
+            return images[current];
+        }
+        if (output == null) {
+            allocate();
+        }
+        context = sws_getCachedContext(context,
+                picture.width(), picture.height(), picture.format(),
+                width, height, AV_PIX_FMT_BGR24, SWS_BILINEAR,
+                null, null, (DoublePointer) null);
+        if (context == null) {
+            throw new AvException("sws_getCachedContext() error: Cannot initialize the conversion context.");
+        }
+        sws_scale(context, frame.getPicturePointers(), picture.linesize(), 0,
+                picture.height(), outputPointers, output.linesize());
+        int next = 1 - current;
+        if (images[next] == null) {
+            images[next] = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        }
+        byte[] bytes = ((DataBufferByte) images[next].getRaster().getDataBuffer()).getData();
+        output.data(0).get(bytes, 0, width * height * 3);
+        current = next;
+        lastFrame = frame;
+        lastGeneration = frame.getGeneration();
+        return images[current];
+    }
+
+    private void allocate() throws AvException {
+        if ((output = av_frame_alloc()) == null) {
+            throw new AvException("av_frame_alloc() error: Could not allocate scaled picture frame.");
+        }
+        outputBuffer = new BytePointer(av_malloc(avpicture_get_size(AV_PIX_FMT_BGR24, width, height)));
+        avpicture_fill(new AVPicture(output), outputBuffer, AV_PIX_FMT_BGR24, width, height);
+        outputPointers = new PointerPointer<BytePointer>(output);
+    }
+
+    /**
+     * Frees the native buffers. Later conversions return null.
+     */
+    public synchronized void release() {
+        released = true;
+        lastFrame = null;
+        if (context != null) {
+            sws_freeContext(context);
+            context = null;
+        }
+        if (output != null) {
+            av_frame_free(output);
+            output = null;
+        }
+        if (outputBuffer != null) {
+            av_free(outputBuffer);
+            outputBuffer = null;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.sources.media;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.PointerPointer;
+
+import static org.bytedeco.javacpp.avutil.*;
+
+/**
+ * Native storage for queued pictures of one pixel format and size, carved
+ * into fixed-size slots from slabs of {@link #SLAB_SLOTS} pictures each.
+ * A whole queue of frames then costs a handful of native allocations and
+ * nothing on the Java heap but the frame objects themselves.
+ *
+ * A slab is freed once every slot in it has been given back, such as when
+ * the frame pool shrinks, except that the last one is kept for reuse until
+ * the allocator is retired. That happens when the picture size changes and
+ * a new one is made.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public class PictureSlabs {
+
+    public static final int SLAB_SLOTS = 16;
+    private static final int ALIGN = 32;
+
+    private final int format;
+    private final int width;
+    private final int height;
+    private final int slotBytes;
+    //oldest first; slots are taken from the oldest slab with room, so newer ones empty out
+    private final List<Slab> slabs = new ArrayList<>();
+    private boolean retired = false;
+
+    public PictureSlabs(int format, int width, int height) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.slotBytes = av_image_get_buffer_size(format, width, height, ALIGN);
+    }
+
+    public boolean fits(int format, int width, int height) {
+        return !retired && this.format == format && this.width == width && this.height == height;
+    }
+
+    /**
+     * Points the frame's planes at a free slot and sets its format and size.
+     *
+     * @return the slot, which must be given back with {@link Slot#free()}
+     */
+    public synchronized Slot take(AVFrame frame) throws AvException {
+        if (slotBytes < 0) {
+            throw new AvException("av_image_get_buffer_size() error: Unsupported picture format.");
+        }
+        Slab slab = findFreeSlab();
+        int index = slab.free[--slab.freeCount];
+        frame.format(format);
+        frame.width(width);
+        frame.height(height);
+        BytePointer start = new BytePointer(slab.memory).position(index * slotBytes);
+        av_image_fill_arrays(new PointerPointer<BytePointer>(frame), frame.linesize(), start, format, width, height, ALIGN);
+        return new Slot(slab, index);
+    }
+
+    private Slab findFreeSlab() throws AvException {
+        for (Slab slab : slabs) {
+            if (slab.freeCount > 0) {
+                return slab;
+            }
+        }
+        Slab slab = new Slab();
+        slabs.add(slab);
+        return slab;
+    }
+
+    /**
+     * Frees every slab as soon as its slots are all given back.
+     */
+    public synchronized void retire() {
+        retired = true;
+        for (Slab slab : new ArrayList<>(slabs)) {
+            freeIfUnused(slab);
+        }
+    }
+
+    private void freeIfUnused(Slab slab) {
+        if (slab.freeCount == SLAB_SLOTS && (retired || slabs.size() > 1)) {
+            av_free(slab.memory);
+            slabs.remove(slab);
+        }
+    }
+
+    private class Slab {
+
+        final BytePointer memory;
+        final int[] free = new int[SLAB_SLOTS];
+        int freeCount = SLAB_SLOTS;
+
+        Slab() throws AvException {
+            this.memory = new BytePointer(av_malloc((long) slotBytes * SLAB_SLOTS));
+            if (memory.isNull()) {
+                throw new AvException("av_malloc() error: Could not allocate picture slab.");
+            }
+            for (int i = 0; i < SLAB_SLOTS; i++) {
+                free[i] = SLAB_SLOTS - 1 - i;
+            }
+        }
+    }
+
+    /**
+     * One picture's worth of a slab.
+     */
+    public class Slot {
+
+        private final Slab slab;
+        private final int index;
+
+        private Slot(Slab slab, int index) {
+            this.slab = slab;
+            this.index = index;
+        }
+
+        public PictureSlabs getOwner() {
+            return PictureSlabs.this;
+        }
+
+        public void free() {
+            synchronized (PictureSlabs.this) {
+                slab.free[slab.freeCount++] = index;
+                freeIfUnused(slab);
+            }
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.nio.ByteBuffer;
  * @author Phil Hayward <phil@pjhayward.net>
  */
 public class PlanarConverter extends AudioConverter {
+
     final int bitSampleSize;
     final int channels;
 
@@ -32,19 +33,30 @@ public class PlanarConverter extends AudioConverter {
     }
 
     @Override
-    public byte[] prepareSamplesForPlayback(Buffer[] samples) {
-        int sampleByteSize = (bitSampleSize + 7) / 8;
-        int frameSize = channels * sampleByteSize;
-        int frames = ((ByteBuffer) samples[0]).limit() / sampleByteSize;
-        byte[] buffer = new byte[frames * frameSize];
-        for (int frame = 0; frame < frames; frame++) {
-            int frameOffset = frame * frameSize;
-            for (int channel = 0; channel < channels; channel++) {
-                int channelOffset = channel * sampleByteSize;
-                ((ByteBuffer) samples[channel]).get(buffer, frameOffset + channelOffset, sampleByteSize);
+    public int getSampleSizeInBits() {
+        return bitSampleSize;
+    }
+
+    @Override
+    public boolean isSigned() {
+        return bitSampleSize > 8;
+    }
+
+    @Override
+    public int outputSize(Buffer[] samples) {
+        return samples[0].limit() * channels * ((bitSampleSize + 7) / 8);
+    }
+
+    @Override
+    public int convert(Buffer[] samples, byte[] target) {
+        //only 8 bit data reaches here as raw bytes, wider formats have their own converters
+        int frames = samples[0].limit();
+        for (int channel = 0; channel < channels; channel++) {
+            ByteBuffer buffer = (ByteBuffer) samples[channel];
+            for (int frame = 0, index = channel; frame < frames; frame++, index += channels) {
+                target[index] = buffer.get(frame);
             }
         }
-        return buffer;
+        return frames * channels;
     }
-    
 }
@@ -29,12 +29,15 @@ public class PlanarDblConverter extends PlanarConverter {
     }
 
     @Override
-    public byte[] prepareSamplesForPlayback(Buffer[] samples) {
-        Buffer[] convertedSamples = new Buffer[samples.length];
-        for (int i = 0; i < samples.length; i++) {
-            convertedSamples[i] = convertDblToShortBuffer((DoubleBuffer) samples[i]);
+    public int convert(Buffer[] samples, byte[] target) {
+        int frames = samples[0].limit();
+        int frameSize = channels * 2;
+        for (int channel = 0; channel < channels; channel++) {
+            DoubleBuffer buffer = (DoubleBuffer) samples[channel];
+            for (int frame = 0, index = channel * 2; frame < frames; frame++, index += frameSize) {
+                putShort(target, index, dblToShort(buffer.get(frame)));
+            }
         }
-        return super.prepareSamplesForPlayback(convertedSamples);
+        return frames * frameSize;
     }
-
 }
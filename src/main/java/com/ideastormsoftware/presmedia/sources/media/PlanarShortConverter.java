@@ -17,7 +17,6 @@ package com.ideastormsoftware.presmedia.sources.media;
 
 import java.nio.Buffer;
 import java.nio.ShortBuffer;
-import org.bytedeco.javacpp.ShortPointer;
 
 /**
  *
@@ -30,12 +29,15 @@ public class PlanarShortConverter extends PlanarConverter {
     }
 
     @Override
-    public byte[] prepareSamplesForPlayback(Buffer[] samples) {
-        Buffer[] convertedSamples = new Buffer[samples.length];
-        for (int i = 0; i < samples.length; i++) {
-            convertedSamples[i] = new ShortPointer((ShortBuffer) samples[i]).asByteBuffer();
+    public int convert(Buffer[] samples, byte[] target) {
+        int frames = samples[0].limit();
+        int frameSize = channels * 2;
+        for (int channel = 0; channel < channels; channel++) {
+            ShortBuffer buffer = (ShortBuffer) samples[channel];
+            for (int frame = 0, index = channel * 2; frame < frames; frame++, index += frameSize) {
+                putShort(target, index, buffer.get(frame));
+            }
         }
-        return super.prepareSamplesForPlayback(convertedSamples);
+        return frames * frameSize;
     }
-
 }
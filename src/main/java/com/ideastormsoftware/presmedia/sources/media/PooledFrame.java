@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.sources.media;
+
+import com.ideastormsoftware.presmedia.sources.Frame;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.PointerPointer;
+import static org.bytedeco.javacpp.avutil.*;
+
+/**
+ * A frame owned by a {@link FramePool}. Whoever acquires it holds one
+ * reference; anyone else keeping it, such as a painter still drawing its
+ * image, must {@link #retain()} it. The frame goes back to the pool, to be
+ * decoded over, when every reference has been released.
+ *
+ * When the grabber defers colour conversion the frame has no image; it
+ * holds a native copy of the decoded picture instead, which is converted
+ * only if and when the frame is shown.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public class PooledFrame extends Frame {
+
+    private final FramePool pool;
+    private final AtomicInteger references = new AtomicInteger();
+    /**
+     * The producer's stream serial when the frame was decoded, so frames
+     * from before a seek can be told apart.
+     */
+    public int serial;
+    //native copy of the decoded picture, when conversion is deferred, with its planes in a slab slot
+    AVFrame picture;
+    PictureSlabs.Slot slot;
+    private PointerPointer<BytePointer> picturePointers;
+    private long generation = 0;
+
+    PooledFrame(FramePool pool, BufferedImage image) {
+        this.pool = pool;
+        this.image = image;
+    }
+
+    PooledFrame acquired() {
+        generation++;
+        references.set(1);
+        return this;
+    }
+
+    /**
+     * @return the decoded picture, or null if it was converted into
+     * {@link #image} when it was decoded
+     */
+    public AVFrame getPicture() {
+        return picture;
+    }
+
+    /**
+     * @return the picture's plane pointers as sws_scale takes them, made
+     * once per frame rather than for every conversion, or null if there is
+     * no picture
+     */
+    public synchronized PointerPointer<BytePointer> getPicturePointers() {
+        if (picturePointers == null && picture != null) {
+            //the AVFrame is reused for the life of the frame, only its planes move
+            picturePointers = new PointerPointer<BytePointer>(picture);
+        }
+        return picturePointers;
+    }
+
+    /**
+     * @return a number that changes every time the frame is reused, so a
+     * conversion of it can be cached
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    synchronized void dispose() {
+        picturePointers = null;
+        if (slot != null) {
+            slot.free();
+            slot = null;
+        }
+        if (picture != null) {
+            av_frame_free(picture);
+            picture = null;
+        }
+        image = null;
+    }
+
+    /**
+     * Takes another reference to a frame that is already held.
+     *
+     * @return this frame
+     */
+    public PooledFrame retain() {
+        int count;
+        do {
+            count = references.get();
+            if (count <= 0) {
+                throw new IllegalStateException("frame already released to its pool");
+            }
+        } while (!references.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    public void release() {
+        int count = references.decrementAndGet();
+        if (count == 0) {
+            pool.recycle(this);
+        } else if (count < 0) {
+            throw new IllegalStateException("frame released more times than it was retained");
+        }
+    }
+}
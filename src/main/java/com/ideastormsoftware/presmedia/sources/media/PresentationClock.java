@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.sources.media;
+
+/**
+ * Master clock for media playback, in stream microseconds. It is anchored to
+ * a stream timestamp and runs off {@link System#nanoTime()} in between
+ * anchors, so reading it is cheap from any thread.
+ *
+ * When there is audio, the audio thread re-anchors it after every write from
+ * the timestamp of the data written minus what is still queued for output,
+ * which is the sample the listener is hearing now. Small corrections are
+ * ignored so the clock doesn't jitter with the line's buffer granularity.
+ * Syncing never starts a stopped clock, only {@link #start()} does, so a
+ * write that was already underway when playback paused can't restart it.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public class PresentationClock {
+
+    //corrections smaller than this are line granularity, not drift
+    private static final long JITTER_MICROS = 2_000;
+
+    private volatile Anchor anchor = new Anchor(0, System.nanoTime(), false);
+
+    /**
+     * @return the current stream position in microseconds
+     */
+    public long get() {
+        return anchor.at(System.nanoTime());
+    }
+
+    public boolean isRunning() {
+        return anchor.running;
+    }
+
+    /**
+     * Jumps the clock to a new position, keeping it running or stopped.
+     */
+    public synchronized void set(long position) {
+        anchor = new Anchor(position, System.nanoTime(), anchor.running);
+    }
+
+    public synchronized void start() {
+        Anchor current = anchor;
+        if (!current.running) {
+            long now = System.nanoTime();
+            anchor = new Anchor(current.at(now), now, true);
+        }
+    }
+
+    public synchronized void stop() {
+        Anchor current = anchor;
+        if (current.running) {
+            long now = System.nanoTime();
+            anchor = new Anchor(current.at(now), now, false);
+        }
+    }
+
+    /**
+     * Re-anchors the running clock against the audio output after a write.
+     * Does nothing while the clock is stopped.
+     *
+     * @param writtenUntil the stream timestamp at the end of the data just
+     * written
+     * @param queuedMicros how long until that data is heard
+     */
+    public synchronized void syncToAudio(long writtenUntil, long queuedMicros) {
+        long now = System.nanoTime();
+        long heard = writtenUntil - queuedMicros;
+        long drift = anchor.at(now) - heard;
+        if (anchor.running && Math.abs(drift) > JITTER_MICROS) {
+            anchor = new Anchor(heard, now, true);
+        }
+    }
+
+    private static class Anchor {
+
+        final long position;
+        final long nanoTime;
+        final boolean running;
+
+        Anchor(long position, long nanoTime, boolean running) {
+            this.position = position;
+            this.nanoTime = nanoTime;
+            this.running = running;
+        }
+
+        long at(long now) {
+            return running ? position + (now - nanoTime) / 1000 : position;
+        }
+    }
+}
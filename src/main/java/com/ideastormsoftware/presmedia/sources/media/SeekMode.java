@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.sources.media;
+
+/**
+ * How a seek picks the position it lands on. The keyframe modes start
+ * playback on a keyframe, so nothing has to be decoded and thrown away to
+ * reach the target; they fall back to {@link #ACCURATE} until the file's
+ * {@link KeyframeIndex} is available, and when there is no keyframe on the
+ * side of the position they snap to.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public enum SeekMode {
+    /**
+     * Lands on the exact position, decoding from the keyframe before it.
+     */
+    ACCURATE,
+    /**
+     * Snaps to the closest keyframe on either side of the position.
+     */
+    NEAREST_KEYFRAME,
+    /**
+     * Snaps to the keyframe at or before the position.
+     */
+    PREVIOUS_KEYFRAME,
+    /**
+     * Snaps to the keyframe at or after the position.
+     */
+    NEXT_KEYFRAME;
+
+    /**
+     * @return the position to seek to and start showing frames from
+     */
+    public long resolve(long position, KeyframeIndex index) {
+        if (index == null || index.isEmpty()) {
+            return position;
+        }
+        switch (this) {
+            case NEAREST_KEYFRAME:
+                return index.nearest(position);
+            case PREVIOUS_KEYFRAME:
+                long previous = index.previous(position);
+                return previous <= position ? previous : position;
+            case NEXT_KEYFRAME:
+                //past the last keyframe, next() gives one behind the position
+                long next = index.next(position);
+                return next >= position ? next : position;
+            default:
+                return position;
+        }
+    }
+}
@@ -7,20 +7,25 @@ import com.ideastormsoftware.presmedia.filters.Lyrics;
 import com.ideastormsoftware.presmedia.filters.Name;
 import com.ideastormsoftware.presmedia.filters.Slideshow;
 import com.ideastormsoftware.presmedia.sources.Camera;
-import com.ideastormsoftware.presmedia.sources.ImageSource;
+import com.ideastormsoftware.presmedia.sources.SizedImageSource;
 import com.ideastormsoftware.presmedia.sources.Media;
+import com.ideastormsoftware.presmedia.sources.MediaPlaylist;
+import com.ideastormsoftware.presmedia.sources.StillImageSource;
 import com.ideastormsoftware.presmedia.sources.media.AvException;
+import com.ideastormsoftware.presmedia.sources.media.SeekMode;
 import com.ideastormsoftware.presmedia.util.DisplayFile;
 import com.ideastormsoftware.presmedia.util.FrameCoordinator;
 import com.ideastormsoftware.presmedia.util.RollingAverage;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
+import java.awt.Dimension;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -67,11 +72,12 @@ public class ControlView extends javax.swing.JFrame {
     private Lyrics activeLyrics;
     private Slideshow selectedSlides;
     private Media activeMedia = null;
+    private MediaPlaylist playlist = null;
     private Sigar sigar = new Sigar();
     private RollingAverage cpuAvg = new RollingAverage(5);
     private RollingAverage memAvg = new RollingAverage(5);
     private RollingAverage heapAvg = new RollingAverage(5);
-    private final ImageSource mediaSource = new ImageSource() {
+    private final SizedImageSource mediaSource = new SizedImageSource() {
         @Override
         public double getFps() {
             if (activeMedia != null) {
@@ -87,6 +93,22 @@ public class ControlView extends javax.swing.JFrame {
             }
             return Optional.empty();
         }
+
+        @Override
+        public Optional<BufferedImage> get(Dimension targetSize) {
+            if (activeMedia != null) {
+                return activeMedia.get(targetSize);
+            }
+            return Optional.empty();
+        }
+
+        @Override
+        public long getFrameNumber() {
+            if (activeMedia != null) {
+                return activeMedia.getFrameNumber();
+            }
+            return UNVERSIONED;
+        }
     };
 
     /**
@@ -106,6 +128,8 @@ public class ControlView extends javax.swing.JFrame {
                     mediaProgress.setValue((int) progress);
                     audioBufferFill.setValue(activeMedia.getAudioBufferLoad());
                     videoBufferFill.setValue(activeMedia.getVideoBufferLoad());
+                    videoBufferFill.setToolTipText(String.format("A/V drift: %1.1f ms, %d frames dropped",
+                            activeMedia.getAvDrift() * 0.001, activeMedia.getDroppedFrames()));
                 } else {
                     mediaProgress.setValue(0);
                     audioBufferFill.setValue(0);
@@ -1141,7 +1165,7 @@ public class ControlView extends javax.swing.JFrame {
                 if (target < 0) {
                     target = 0;
                 }
-                activeMedia.seekTo(target);
+                activeMedia.seekTo(target, SeekMode.PREVIOUS_KEYFRAME);
             } catch (AvException | InterruptedException ex) {
                 warn("Unable to seek within media", ex);
             }
@@ -1156,7 +1180,7 @@ public class ControlView extends javax.swing.JFrame {
                 if (target > activeMedia.getMediaDuration()) {
                     target = activeMedia.getMediaDuration();
                 }
-                activeMedia.seekTo(target);
+                activeMedia.seekTo(target, SeekMode.NEXT_KEYFRAME);
             } catch (AvException | InterruptedException ex) {
                 warn("Unable to seek within media", ex);
             }
@@ -1186,7 +1210,7 @@ public class ControlView extends javax.swing.JFrame {
         if (result == JFileChooser.APPROVE_OPTION) {
             try {
                 BufferedImage image = ImageIO.read(chooser.getSelectedFile());
-                backgroundSource = () -> Optional.of(image);
+                backgroundSource = new StillImageSource(image);
                 updatePreview();
             } catch (IOException ex) {
                 ex.printStackTrace();
@@ -1308,49 +1332,47 @@ public class ControlView extends javax.swing.JFrame {
     private javax.swing.JProgressBar videoBufferFill;
     // End of variables declaration//GEN-END:variables
 
+    private List<File> selectedMediaFiles() {
+        List<File> files = new ArrayList<>();
+        for (Object item : mediaList.getSelectedValuesList()) {
+            files.add((File) item);
+        }
+        return files;
+    }
+
     private void updatePreview() {
         FrameCoordinator.setActiveSource(null);
         try {
             loopMedia.setEnabled(!displayMedia.isSelected());
             if (displayMedia.isSelected()) {
                 if (activeMedia == null) {
-                    List<File> selectedMedia = mediaList.getSelectedValuesList();
-                    Runnable callback = new Runnable() {
-                        int mediaIndex = 0;
-
-                        @Override
-                        public void run() {
-                            List<File> selectedMedia = mediaList.getSelectedValuesList();
-                            try {
-                                mediaIndex++;
-                                if (mediaIndex >= selectedMedia.size()) {
-                                    if (loopMedia.isSelected() && !selectedMedia.isEmpty()) {
-                                        mediaIndex = 0;
-                                    } else {
-                                        displayMedia.setSelected(false);
-                                        updatePreview();
-                                        return;
-                                    }
-                                }
-                                activeMedia = new Media(selectedMedia.get(mediaIndex).getAbsolutePath(), this);
-                                FrameCoordinator.setActiveSource(activeMedia);
-                                source.setSourceNoFade(activeMedia);
-                            } catch (Exception ex) {
-                                ex.printStackTrace();
-                                activeMedia = null;
-                                ex.printStackTrace();
-                                source.setSource(backgroundSource);
-                            }
+                    playlist = new MediaPlaylist(this::selectedMediaFiles, loopMedia::isSelected, (media) -> {
+                        try {
+                            activeMedia = media;
+                            FrameCoordinator.setActiveSource(activeMedia);
+                            source.setSourceNoFade(activeMedia);
+                        } catch (Exception ex) {
+                            ex.printStackTrace();
+                            activeMedia = null;
+                            source.setSource(backgroundSource);
                         }
-                    };
-                    if (!selectedMedia.isEmpty()) {
-                        activeMedia = new Media(selectedMedia.get(0).getAbsolutePath(), callback);
+                    }, () -> {
+                        displayMedia.setSelected(false);
+                        updatePreview();
+                    });
+                    playlist.setTargetSize(projector::getRenderSize);
+                    activeMedia = playlist.first();
+                    if (activeMedia != null) {
                         FrameCoordinator.setActiveSource(activeMedia);
                         source.setSource(activeMedia);
                     }
                 }
             } else {
                 activeMedia = null;
+                if (playlist != null) {
+                    playlist.stop();
+                    playlist = null;
+                }
                 if (displayCamera.isSelected() && selectedCamera != null) {
                     FrameCoordinator.setActiveSource(selectedCamera);
                     source.setSource(selectedCamera);
@@ -15,67 +15,170 @@
  */
 package com.ideastormsoftware.presmedia.ui;
 
+import com.ideastormsoftware.presmedia.sources.FrameKey;
 import com.ideastormsoftware.presmedia.sources.ScaledSource;
-import com.ideastormsoftware.presmedia.util.FrameCoordinator;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
 import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
 import java.util.ArrayDeque;
 import java.util.Optional;
 import java.util.Queue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 import org.imgscalr.Scalr;
 
+/**
+ * Renders a source into a triple buffer and paints the newest finished
+ * frame. Rendering is run by the shared {@link RenderScheduler}, which owns
+ * the back surface while {@link #paint(Graphics2D)} owns the front one;
+ * finished frames are handed over through a pending surface with atomic
+ * swaps, so neither side ever waits on the other. After each render the
+ * callback is run to have the result presented. Frames where neither the
+ * source nor the size has changed since the last render aren't redrawn.
+ *
+ * Surfaces are software BufferedImages unless {@link #setAccelerated} is
+ * given a screen, in which case they are VolatileImages Java2D can keep in
+ * video memory. Lost contents are redrawn on the next frame, and painting
+ * falls back to software if the screen can't accelerate images or keeps
+ * losing them.
+ */
 public class ImagePainter {
 
-    private static void log(String format, Object... params) {
-        System.out.printf(format + "\n", params);
-    }
-    private LoopingThread paintTimer;
-    private int width;
-    private int height;
+    private final RenderScheduler.Priority priority;
+    private RenderScheduler.Job job;
+    private final Queue<Long> startTimes = new ArrayDeque<>();
+    private volatile Dimension size = new Dimension();
     private Supplier<Double> fpsSource;
-    private BufferedImage buffer;
-    private final Object scalingMutex = new Object();
 
     private ScaledSource source;
     private Optional<Scalr.Method> quality;
 
-    ImagePainter(Dimension size) {
+    private Surface back = new Surface();
+    private final AtomicReference<Surface> pending = new AtomicReference<>(new Surface());
+    private Surface front = new Surface();
+    //what the newest published surface shows, only touched by the render job
+    private FrameKey renderedKey = FrameKey.UNVERSIONED;
+    private Dimension renderedSize = new Dimension();
+    //set when a surface lost its contents or changed kind, so the next frame is redrawn regardless
+    private volatile boolean redraw = false;
+    //surfaces are VolatileImages for this screen, or BufferedImages if null
+    private volatile GraphicsConfiguration acceleration;
+    private volatile String pipeline = SOFTWARE;
+    private static final String SOFTWARE = "software (BufferedImage)";
+    //losses in a row before giving up on VolatileImages, such as while another application holds the screen exclusively
+    private static final int MAX_LOST_FRAMES = 10;
+    private int lostFrames = 0;
+
+    ImagePainter(Dimension size, RenderScheduler.Priority priority) {
+        this.priority = priority;
         setSize(size);
     }
 
-    public double getFps() {
-        return paintTimer.getRate();
+    public synchronized double getFps() {
+        if (startTimes.isEmpty()) {
+            return 0;
+        }
+        return startTimes.size() / ((System.nanoTime() - startTimes.peek()) / 1_000_000_000.0);
+    }
+
+    private synchronized void countFrame(long start) {
+        startTimes.offer(start);
+        while (startTimes.peek() < start - 1_000_000_000) {
+            startTimes.poll();
+        }
+    }
+
+    /**
+     * Renders into VolatileImages compatible with the given screen, or into
+     * BufferedImages if it is null or can't accelerate images.
+     */
+    public void setAccelerated(GraphicsConfiguration screen) {
+        if (screen != null && !screen.getImageCapabilities().isAccelerated()) {
+            fallBack("the screen doesn't accelerate images");
+            return;
+        }
+        acceleration = screen;
+        pipeline = screen != null ? "accelerated (VolatileImage)" : SOFTWARE;
+        redraw = true;
+    }
+
+    /**
+     * @return which kind of surface frames are composited into, for
+     * reporting
+     */
+    public String getPipeline() {
+        return pipeline;
+    }
+
+    private void fallBack(String reason) {
+        log("Falling back to software painting: %s", reason);
+        acceleration = null;
+        pipeline = SOFTWARE + ", " + reason;
+        redraw = true;
     }
 
+    private static void log(String format, Object... params) {
+        System.out.printf(format + "\n", params);
+    }
+
+    /**
+     * Starts rendering the source.
+     */
     public void setup(ScaledSource source, Supplier<Double> fpsSource, Optional<Scalr.Method> quality, Runnable callback) {
         this.fpsSource = fpsSource;
-        this.paintTimer = new LoopingThread(() -> {
-            int maxDelay = (int) (1000 / FrameCoordinator.getSourceFPS());
-            try {
-                FrameCoordinator.waitForFrame(maxDelay);
-                if (callback != null) {
-                    callback.run();
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        });
         this.source = source;
         this.quality = quality;
-        paintTimer.start();
+        this.job = new RenderScheduler.Job(priority, () -> {
+            countFrame(System.nanoTime());
+            render();
+            if (callback != null) {
+                callback.run();
+            }
+        });
+        start();
     }
 
+    /**
+     * Resumes rendering after {@link #stop()}.
+     */
+    public void start() {
+        if (job != null) {
+            RenderScheduler.getInstance().add(job);
+        }
+    }
+
+    /**
+     * Stops rendering, such as while the component painted into is not
+     * showing.
+     */
+    public void stop() {
+        if (job != null) {
+            RenderScheduler.getInstance().remove(job);
+        }
+    }
+
+    /**
+     * Draws the newest rendered frame. Call from one thread at a time.
+     */
     public void paint(Graphics2D g) {
-        synchronized (scalingMutex) {
-            g.drawImage(buffer, 0, 0, null);
-            scalingMutex.notify();
+        if (pending.get().fresh) {
+            front.fresh = false;
+            front = pending.getAndSet(front);
+        }
+        Image image = front.image();
+        if (image != null) {
+            g.drawImage(image, 0, 0, null);
+            if (front.contentsLost()) {
+                redraw = true;
+            }
         }
         if (fpsSource != null) {
-            String fps = String.format("FPS: %01.1f SFPS: %01.1f", paintTimer.getRate(), fpsSource.get());
+            String fps = String.format("FPS: %01.1f SFPS: %01.1f", getFps(), fpsSource.get());
+            int height = size.height;
             g.setColor(Color.black);
             g.drawString(fps, 5, height - 16);
             g.setColor(Color.white);
@@ -84,89 +187,89 @@ public class ImagePainter {
     }
 
     final void setSize(Dimension size) {
-        this.width = (int) size.getWidth();
-        this.height = (int) size.getHeight();
-        if (width > 0 && height > 0) {
-            synchronized (scalingMutex) {
-                this.buffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-            }
-        }
+        this.size = new Dimension(size);
     }
 
-    private class Prescaler extends Thread {
-
-        public Prescaler() {
-            super("Prescaler");
+    /**
+     * Renders the source into the back surface and publishes it as pending.
+     * The scheduler never runs this concurrently with itself.
+     */
+    private void render() {
+        Dimension target = size;
+        if (target.width < 1 || target.height < 1) {
+            return;
         }
-
-        private void scale(Graphics2D g) {
-            source.scaleInto(g, new Dimension(width, height), quality);
+        FrameKey key = source.getFrameKey();
+        if (key.equals(renderedKey) && target.equals(renderedSize) && !redraw) {
+            return;
         }
-
-        @Override
-        public void run() {
-            try {
-                while (!interrupted()) {
-                    synchronized (scalingMutex) {
-                        scalingMutex.wait();
-                        scale(buffer.createGraphics());
-                    }
-                }
-            } catch (Throwable ex) {
-                ex.printStackTrace();
+        redraw = false;
+        GraphicsConfiguration screen = acceleration;
+        Graphics2D g;
+        try {
+            g = back.prepare(target, screen);
+        } catch (RuntimeException e) {
+            if (screen == null) {
+                throw e;
+            }
+            fallBack("could not create a VolatileImage: " + e);
+            g = back.prepare(target, null);
+        }
+        try {
+            source.scaleInto(g, target, quality);
+        } finally {
+            g.dispose();
+        }
+        if (back.contentsLost()) {
+            redraw = true;
+            if (++lostFrames >= MAX_LOST_FRAMES) {
+                fallBack("surface contents kept being lost");
             }
+            return;
         }
+        lostFrames = 0;
+        renderedKey = key;
+        renderedSize = target;
+        back.fresh = true;
+        //whatever comes back was either shown already or never will be, so it is free to reuse
+        back = pending.getAndSet(back);
     }
 
-    private class LoopingThread extends Thread {
+    private static class Surface {
 
-        private final Runnable task;
-        private Queue<Long> startTimes = new ArrayDeque<>();
-        private Prescaler scaler = new Prescaler();
+        private BufferedImage image;
+        private VolatileImage volatileImage;
+        private volatile boolean fresh = false;
 
-        LoopingThread(Runnable task) {
-            super("Painting loop");
-            this.task = task;
+        Graphics2D prepare(Dimension size, GraphicsConfiguration screen) {
+            if (screen == null) {
+                if (volatileImage != null) {
+                    volatileImage.flush();
+                    volatileImage = null;
+                }
+                if (image == null || image.getWidth() != size.width || image.getHeight() != size.height) {
+                    image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+                }
+                return image.createGraphics();
+            }
+            image = null;
+            if (volatileImage == null || volatileImage.getWidth() != size.width || volatileImage.getHeight() != size.height
+                    || volatileImage.validate(screen) == VolatileImage.IMAGE_INCOMPATIBLE) {
+                if (volatileImage != null) {
+                    volatileImage.flush();
+                }
+                volatileImage = screen.createCompatibleVolatileImage(size.width, size.height);
+            }
+            //a restored image is fine too, every frame is drawn in full
+            return volatileImage.createGraphics();
         }
 
-        private void delay(long nanos) throws InterruptedException {
-            TimeUnit.NANOSECONDS.sleep(nanos);
+        boolean contentsLost() {
+            return volatileImage != null && volatileImage.contentsLost();
         }
 
-        public double getRate() {
-            if (startTimes.isEmpty()) {
-                return 0;
-            }
-            return startTimes.size() / ((System.nanoTime() - startTimes.peek()) / 1_000_000_000.0);
-        }
-
-        @Override
-        public void run() {
-            scaler.start();
-            try {
-                while (true) {
-                    long runStart = System.nanoTime();
-                    startTimes.offer(runStart);
-                    while (startTimes.peek() < runStart - 1_000_000_000) {
-                        startTimes.poll();
-                    }
-                    try {
-                        task.run();
-                    } catch (Exception e) {
-                        log("Failed to render: %s", e);
-                        e.printStackTrace();
-                    }
-                    long runEnd = System.nanoTime();
-                    long minimumDelayNanos = (long) (1_000_000_000 / FrameCoordinator.getSourceFPS());
-                    long delay = minimumDelayNanos - (runEnd - runStart);
-                    if (delay > 0) {
-                        delay(delay);
-                    }
-                }
-            } catch (Throwable e) {
-                e.printStackTrace();
-            }
-            scaler.interrupt();
+        Image image() {
+            return volatileImage != null ? volatileImage : image;
         }
     }
 
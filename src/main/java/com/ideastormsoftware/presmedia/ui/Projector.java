@@ -36,7 +36,7 @@ public class Projector extends Window {
 
     public Projector(ScaledSource source) throws HeadlessException {
         super(null);
-        this.painter = new ImagePainter(this.getSize());
+        this.painter = new ImagePainter(this.getSize(), RenderScheduler.Priority.OUTPUT);
         painter.setup(source, null, Optional.empty(), () -> {
 //            Toolkit.getDefaultToolkit().sync();
             BufferStrategy strategy = getBufferStrategy();
@@ -75,6 +75,10 @@ public class Projector extends Window {
             System.out.println("FSEM Required: " + strategy.getCapabilities().isFullScreenRequired());
             System.out.println("Backbuffer accelerated: " + strategy.getCapabilities().getBackBufferCapabilities().isAccelerated());
             System.out.println("Frontbuffer accelerated: " + strategy.getCapabilities().getFrontBufferCapabilities().isAccelerated());
+            //-Dpresmedia.accelerated=false keeps compositing in software
+            boolean accelerate = Boolean.parseBoolean(System.getProperty("presmedia.accelerated", "true"));
+            painter.setAccelerated(accelerate ? getGraphicsConfiguration() : null);
+            System.out.println("Compositing: " + painter.getPipeline());
         }
     }
 
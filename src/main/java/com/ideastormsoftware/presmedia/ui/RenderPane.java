@@ -63,12 +63,25 @@ public class RenderPane extends JPanel {
             }
         });
 
-        painter = new ImagePainter(getSize());
+        painter = new ImagePainter(getSize(), RenderScheduler.Priority.PREVIEW);
         painter.setup(source, fpsSrc, Optional.of(Scalr.Method.SPEED), () -> {
             repaint(1);
         });
     }
 
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        painter.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        //panes taken out of the window would otherwise keep rendering
+        painter.stop();
+        super.removeNotify();
+    }
+
     @Override
     public void paint(Graphics grphcs) {
         painter.paint((Graphics2D) grphcs);
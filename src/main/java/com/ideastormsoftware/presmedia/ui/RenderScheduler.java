@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.ui;
+
+import com.ideastormsoftware.presmedia.util.FrameCoordinator;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The one clock every painter renders by. A single pacing thread decides
+ * which jobs are due and hands them to a small pool of render threads, the
+ * output first. Previews run at a lower rate, and are skipped for a period
+ * whenever the pool already has work waiting, so they can't hold the
+ * projector back on a busy machine.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+final class RenderScheduler {
+
+    /**
+     * In order of precedence.
+     */
+    enum Priority {
+        OUTPUT, PREVIEW
+    }
+
+    private static final double PREVIEW_FPS = 15;
+    //longest the clock sleeps, so newly added jobs start promptly
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final RenderScheduler instance = new RenderScheduler();
+
+    static RenderScheduler getInstance() {
+        return instance;
+    }
+
+    private static void log(String format, Object... params) {
+        System.out.printf(format + "\n", params);
+    }
+
+    private final Set<Job> jobs = new CopyOnWriteArraySet<>();
+    private final ThreadPoolExecutor workers;
+
+    private RenderScheduler() {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger count = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), (task) -> {
+            Thread thread = new Thread(task, "Renderer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY - 1);
+            return thread;
+        });
+        Thread clock = new Thread(this::run, "Render clock");
+        clock.setDaemon(true);
+        clock.setPriority(Thread.MAX_PRIORITY);
+        clock.start();
+    }
+
+    void add(Job job) {
+        jobs.add(job);
+    }
+
+    void remove(Job job) {
+        jobs.remove(job);
+    }
+
+    private void run() {
+        try {
+            long seenFrame = FrameCoordinator.getFrameCount();
+            while (true) {
+                long now = System.nanoTime();
+                long next = now + MAX_IDLE_NANOS;
+                for (Job job : jobs) {
+                    if (job.isDue(now)) {
+                        if (job.priority != Priority.OUTPUT && !workers.getQueue().isEmpty()) {
+                            //the renderers are behind, this preview waits a period
+                            job.lastStart = now;
+                        } else {
+                            job.dispatch(now, workers);
+                        }
+                    }
+                    next = Math.min(next, job.nextDue(now));
+                }
+                long frame = FrameCoordinator.awaitFrame(seenFrame, next - System.nanoTime());
+                if (frame != seenFrame) {
+                    seenFrame = frame;
+                    for (Job job : jobs) {
+                        job.signalled = true;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            //only at shutdown
+        }
+    }
+
+    /**
+     * Something to render repeatedly. A job is never run again before its
+     * previous run has finished; if it overruns, the frames it missed are
+     * dropped.
+     */
+    static class Job implements Runnable, Comparable<Job> {
+
+        private final Priority priority;
+        private final Runnable task;
+        //the rest is only touched by the clock thread, apart from running
+        private long lastStart = Long.MIN_VALUE / 2;
+        private long dueAt;
+        private boolean signalled = false;
+        private volatile boolean running = false;
+
+        Job(Priority priority, Runnable task) {
+            this.priority = priority;
+            this.task = task;
+        }
+
+        private long period() {
+            double fps = FrameCoordinator.getSourceFPS();
+            if (priority != Priority.OUTPUT) {
+                fps = Math.min(fps, PREVIEW_FPS);
+            }
+            return (long) (1_000_000_000 / fps);
+        }
+
+        private boolean isDue(long now) {
+            if (running) {
+                return false;
+            }
+            //a new source frame goes out at once, previews keep to their own rate
+            return (signalled && priority == Priority.OUTPUT) || now - lastStart >= period();
+        }
+
+        private long nextDue(long now) {
+            long due = lastStart + period();
+            return running ? Math.max(due, now) + period() / 2 : due;
+        }
+
+        private void dispatch(long now, ThreadPoolExecutor workers) {
+            lastStart = now;
+            dueAt = now;
+            signalled = false;
+            running = true;
+            workers.execute(this);
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log("Failed to render: %s", e);
+                e.printStackTrace();
+            } finally {
+                running = false;
+            }
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            int order = priority.compareTo(other.priority);
+            return order != 0 ? order : Long.compare(dueAt, other.dueAt);
+        }
+    }
+}
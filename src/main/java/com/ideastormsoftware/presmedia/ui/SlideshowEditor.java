@@ -2,10 +2,26 @@ package com.ideastormsoftware.presmedia.ui;
 
 import com.ideastormsoftware.presmedia.filters.Slideshow;
 import com.ideastormsoftware.presmedia.util.DisplayFile;
+import com.ideastormsoftware.presmedia.util.SlideLoader;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.swing.DefaultListCellRenderer;
 import javax.swing.DefaultListModel;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
 import javax.swing.JFileChooser;
+import javax.swing.JList;
+import javax.swing.ListCellRenderer;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 public class SlideshowEditor extends javax.swing.JFrame {
@@ -13,11 +29,23 @@ public class SlideshowEditor extends javax.swing.JFrame {
     private final DefaultListModel<File> fileListModel = new DefaultListModel<>();
     private final Slideshow slideshow;
     private final Runnable callback;
+    private static final Dimension THUMBNAIL_SIZE = new Dimension(64, 48);
+    //loaded through the slide cache, so reopening the editor doesn't decode every photo again
+    private final Map<File, Future<BufferedImage>> thumbnails = new HashMap<>();
 
     public SlideshowEditor(Slideshow slideshow, Runnable callback) {
         this.slideshow = slideshow;
         initComponents();
         fileList.setModel(fileListModel);
+        JList<?> files = fileList;
+        files.setCellRenderer(new ThumbnailRenderer());
+        fileList.setFixedCellHeight(THUMBNAIL_SIZE.height + 4);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                discardThumbnails();
+            }
+        });
         titleField.setText(slideshow.getTitle());
         randomize.setSelected(slideshow.isRandomize());
         slideDelayEditor.setValue(slideshow.getSlideDelay()*0.001);
@@ -27,6 +55,26 @@ public class SlideshowEditor extends javax.swing.JFrame {
         this.callback = callback;
     }
 
+    private Icon thumbnail(File file) {
+        Future<BufferedImage> thumbnail = thumbnails.computeIfAbsent(file,
+                (key) -> SlideLoader.thumbnail(key, THUMBNAIL_SIZE, () -> SwingUtilities.invokeLater(fileList::repaint)));
+        if (!thumbnail.isDone()) {
+            return null;
+        }
+        try {
+            return new ImageIcon(thumbnail.get());
+        } catch (ExecutionException | InterruptedException e) {
+            return null;
+        }
+    }
+
+    private void discardThumbnails() {
+        for (Future<BufferedImage> thumbnail : thumbnails.values()) {
+            thumbnail.cancel(false);
+        }
+        thumbnails.clear();
+    }
+
     @SuppressWarnings("unchecked")
     // <editor-fold defaultstate="collapsed" desc="Generated Code">//GEN-BEGIN:initComponents
     private void initComponents() {
@@ -175,6 +223,7 @@ public class SlideshowEditor extends javax.swing.JFrame {
     }//GEN-LAST:event_removeActionPerformed
 
     private void cancelButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_cancelButtonActionPerformed
+        discardThumbnails();
         setVisible(false);
     }//GEN-LAST:event_cancelButtonActionPerformed
 
@@ -183,6 +232,7 @@ public class SlideshowEditor extends javax.swing.JFrame {
         slideshow.setFiles(fileListModel.elements());
         slideshow.setRandomize(randomize.isSelected());
         slideshow.setSlideDelay((int) (1000*(Double)slideDelayEditor.getValue()));
+        discardThumbnails();
         setVisible(false);
         if (callback != null) {
             callback.run();
@@ -203,4 +253,16 @@ public class SlideshowEditor extends javax.swing.JFrame {
     private javax.swing.JSpinner slideDelayEditor;
     private javax.swing.JTextField titleField;
     // End of variables declaration//GEN-END:variables
+
+    private class ThumbnailRenderer implements ListCellRenderer<Object> {
+
+        private final DefaultListCellRenderer label = new DefaultListCellRenderer();
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+            label.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            label.setIcon(value instanceof File ? thumbnail((File) value) : null);
+            return label;
+        }
+    }
 }
@@ -17,6 +17,7 @@ package com.ideastormsoftware.presmedia.util;
 
 import com.ideastormsoftware.presmedia.sources.ImageSource;
 import com.ideastormsoftware.presmedia.ui.ImagePainter;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -26,6 +27,8 @@ public class FrameCoordinator {
 
     private static ImageSource activeSource;
     private static int defaultFrameRate = 30;
+    //frames signalled by the active source, so waiters can't miss one that arrives while they're busy
+    private static long frameCount = 0;
 
     public static void setFrameRate(int defaultFrameRate) {
         FrameCoordinator.defaultFrameRate = defaultFrameRate;
@@ -48,11 +51,34 @@ public class FrameCoordinator {
     public static void notify(Object source) {
         if (source == activeSource) {
             synchronized (FrameCoordinator.class) {
+                frameCount++;
                 FrameCoordinator.class.notifyAll();
             }
         }
     }
 
+    public static synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Waits until the active source signals a frame after the last one the
+     * caller saw, or the timeout elapses.
+     *
+     * @return the current frame count, to pass in next time
+     */
+    public static synchronized long awaitFrame(long lastSeen, long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (frameCount == lastSeen) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            TimeUnit.NANOSECONDS.timedWait(FrameCoordinator.class, remaining);
+        }
+        return frameCount;
+    }
+
     public static void waitForFrame() throws InterruptedException {
         synchronized (FrameCoordinator.class) {
             FrameCoordinator.class.wait();
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2017 Phil Hayward<phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single-producer/single-consumer queue over a preallocated slot
+ * array. Only one thread may add items and only one thread may remove them;
+ * {@link #size()} and the wait-free status calls are safe from anywhere.
+ * Blocked threads are parked and unparked directly, so an idle producer or
+ * consumer costs nothing until the other side acts.
+ *
+ * @author Phil Hayward<phil@pjhayward.net>
+ */
+public class RingBuffer<T> {
+
+    private final Object[] slots;
+    private volatile long head = 0; //next slot to read, written by the consumer only
+    private volatile long tail = 0; //next slot to write, written by the producer only
+    private volatile Thread waitingProducer;
+    private volatile Thread waitingConsumer;
+    private volatile int wakeups = 0;
+
+    public RingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        slots = new Object[capacity];
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    public int size() {
+        long currentHead = head;
+        return (int) Math.max(tail - currentHead, 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isFull() {
+        return size() >= slots.length;
+    }
+
+    /**
+     * Producer only.
+     *
+     * @return false if the buffer is full
+     */
+    public boolean offer(T item) {
+        if (item == null) {
+            throw new IllegalArgumentException("item is null");
+        }
+        long currentTail = tail;
+        if (currentTail - head >= slots.length) {
+            return false;
+        }
+        slots[(int) (currentTail % slots.length)] = item;
+        tail = currentTail + 1;
+        unpark(waitingConsumer);
+        return true;
+    }
+
+    /**
+     * Producer only. Waits for a free slot.
+     *
+     * @return false if the timeout elapsed or {@link #wakeUp()} was called
+     * before the item could be added
+     */
+    public boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException {
+        return awaitNotFull(timeout, unit) && offer(item);
+    }
+
+    /**
+     * Consumer only.
+     *
+     * @return the oldest item, or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long currentHead = head;
+        if (currentHead >= tail) {
+            return null;
+        }
+        int index = (int) (currentHead % slots.length);
+        T item = (T) slots[index];
+        slots[index] = null;
+        head = currentHead + 1;
+        unpark(waitingProducer);
+        return item;
+    }
+
+    /**
+     * Consumer only. Waits for an item.
+     *
+     * @return null if the timeout elapsed or {@link #wakeUp()} was called
+     * before an item arrived
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return awaitNotEmpty(timeout, unit) ? poll() : null;
+    }
+
+    /**
+     * Consumer only.
+     */
+    @SuppressWarnings("unchecked")
+    public T peek() {
+        long currentHead = head;
+        if (currentHead >= tail) {
+            return null;
+        }
+        return (T) slots[(int) (currentHead % slots.length)];
+    }
+
+    /**
+     * Producer only. Waits until there is room for at least one item.
+     *
+     * @return false if the timeout elapsed or {@link #wakeUp()} was called
+     * while still full
+     */
+    public boolean awaitNotFull(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!isFull()) {
+            return true;
+        }
+        waitingProducer = Thread.currentThread();
+        try {
+            return await(() -> !isFull(), timeout, unit);
+        } finally {
+            waitingProducer = null;
+        }
+    }
+
+    /**
+     * Consumer only. Waits until at least one item is available.
+     *
+     * @return false if the timeout elapsed or {@link #wakeUp()} was called
+     * while still empty
+     */
+    public boolean awaitNotEmpty(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!isEmpty()) {
+            return true;
+        }
+        waitingConsumer = Thread.currentThread();
+        try {
+            return await(() -> !isEmpty(), timeout, unit);
+        } finally {
+            waitingConsumer = null;
+        }
+    }
+
+    /**
+     * Releases any thread blocked on this buffer so it can re-check whatever
+     * else it is waiting for, such as a cancel or seek request.
+     */
+    public void wakeUp() {
+        wakeups++;
+        unpark(waitingProducer);
+        unpark(waitingConsumer);
+    }
+
+    private boolean await(Condition ready, long timeout, TimeUnit unit) throws InterruptedException {
+        int wakeupsAtStart = wakeups;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!ready.met()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || wakeups != wakeupsAtStart) {
+                return false;
+            }
+            LockSupport.parkNanos(this, remaining);
+        }
+        return true;
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private interface Condition {
+
+        boolean met();
+    }
+}
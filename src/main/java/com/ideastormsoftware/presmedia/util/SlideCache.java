@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.util;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Slides already scaled for display, kept on disk as raw pixels so showing
+ * a slideshow again skips decoding the originals. Entries are keyed on the
+ * source's path, modification time and length plus the size it was scaled
+ * for, so an edited photo is simply a miss. The least recently used entries
+ * are deleted once the cache grows past its size limit.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public final class SlideCache {
+
+    private static final int CACHE_VERSION = 1;
+    private static final File CACHE_DIR = new File(System.getProperty("user.home"), ".presmedia" + File.separator + "slides");
+    private static final String SUFFIX = ".slide";
+
+    private static long maximumBytes = 512L << 20;
+    //bytes on disk, counted on first use
+    private static long totalBytes = -1;
+
+    public static synchronized void setMaximumBytes(long bytes) {
+        maximumBytes = bytes;
+        trim();
+    }
+
+    /**
+     * @return the cached slide, or null if there is none for this version of
+     * the file at this size
+     */
+    public static synchronized BufferedImage get(File source, Dimension targetSize) {
+        File cached = entryFor(source, targetSize);
+        if (cached == null || !cached.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cached), 1 << 16))) {
+            if (in.readInt() != CACHE_VERSION) {
+                return null;
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            int type = in.readInt();
+            if (type != BufferedImage.TYPE_3BYTE_BGR && type != BufferedImage.TYPE_4BYTE_ABGR) {
+                return null;
+            }
+            BufferedImage image = new BufferedImage(width, height, type);
+            in.readFully(((DataBufferByte) image.getRaster().getDataBuffer()).getData());
+            //the modification time doubles as the last use for eviction
+            cached.setLastModified(System.currentTimeMillis());
+            return image;
+        } catch (IOException | RuntimeException e) {
+            //truncated or corrupt entries are just rebuilt
+            remove(cached);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the slide, evicting old entries if that takes the cache over its
+     * limit. Failures are logged and otherwise ignored, the cache is only an
+     * optimization.
+     */
+    public static synchronized void put(File source, Dimension targetSize, BufferedImage image) {
+        File cached = entryFor(source, targetSize);
+        if (cached == null) {
+            return;
+        }
+        BufferedImage raw = toRaw(image);
+        byte[] pixels = ((DataBufferByte) raw.getRaster().getDataBuffer()).getData();
+        try {
+            if (!CACHE_DIR.isDirectory() && !CACHE_DIR.mkdirs()) {
+                throw new IOException("Could not create slide cache directory " + CACHE_DIR);
+            }
+            countBytes();
+            remove(cached);
+            File partial = new File(cached.getPath() + ".part");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partial), 1 << 16))) {
+                out.writeInt(CACHE_VERSION);
+                out.writeInt(raw.getWidth());
+                out.writeInt(raw.getHeight());
+                out.writeInt(raw.getType());
+                out.write(pixels);
+            }
+            if (!partial.renameTo(cached)) {
+                partial.delete();
+                throw new IOException("Could not write slide cache " + cached);
+            }
+            totalBytes += cached.length();
+            trim();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static BufferedImage toRaw(BufferedImage image) {
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_4BYTE_ABGR : BufferedImage.TYPE_3BYTE_BGR;
+        if (image.getType() == type) {
+            return image;
+        }
+        BufferedImage raw = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        Graphics2D g = raw.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return raw;
+    }
+
+    private static File entryFor(File source, Dimension targetSize) {
+        if (!source.isFile()) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            String key = source.getAbsolutePath() + "|" + source.lastModified() + "|" + source.length()
+                    + "|" + targetSize.width + "x" + targetSize.height;
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return new File(CACHE_DIR, hex + SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static void countBytes() {
+        if (totalBytes >= 0) {
+            return;
+        }
+        totalBytes = 0;
+        for (File entry : entries()) {
+            totalBytes += entry.length();
+        }
+    }
+
+    private static void trim() {
+        if (totalBytes <= maximumBytes) {
+            return;
+        }
+        File[] entries = entries();
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < entries.length && totalBytes > maximumBytes; i++) {
+            remove(entries[i]);
+        }
+    }
+
+    private static void remove(File entry) {
+        long length = entry.length();
+        if (entry.delete() && totalBytes >= 0) {
+            totalBytes -= length;
+        }
+    }
+
+    private static File[] entries() {
+        File[] entries = CACHE_DIR.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        return entries == null ? new File[0] : entries;
+    }
+
+    private SlideCache() {
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Phil Hayward <phil@pjhayward.net>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ideastormsoftware.presmedia.util;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import org.imgscalr.Scalr;
+
+/**
+ * Loads slide images off the render thread, already fitted to the size they
+ * will be shown at. Large photos are subsampled as they are decoded, so a
+ * 20 megapixel JPEG never exists at full size in memory, then scaled the
+ * rest of the way to fit. Results are kept in the {@link SlideCache}, so
+ * the next time a slide is shown at that size it is read back raw.
+ *
+ * @author Phil Hayward <phil@pjhayward.net>
+ */
+public final class SlideLoader {
+
+    private static final ExecutorService loader = Executors.newSingleThreadExecutor((task) -> {
+        Thread thread = new Thread(task, "SlideLoader");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+    //editor previews get their own queue, so a folder of photos can't hold up the next slide of a show
+    private static final ExecutorService thumbnailLoader = Executors.newSingleThreadExecutor((task) -> {
+        Thread thread = new Thread(task, "ThumbnailLoader");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * Queues the slide to be loaded in the background.
+     */
+    public static Future<BufferedImage> prefetch(File file, Dimension targetSize) {
+        Dimension size = new Dimension(targetSize);
+        return loader.submit(() -> load(file, size));
+    }
+
+    /**
+     * Queues a preview to be loaded in the background, behind nothing a
+     * running slideshow is waiting for.
+     *
+     * @param finished called on the loading thread once the load has
+     * succeeded or failed
+     */
+    public static Future<BufferedImage> thumbnail(File file, Dimension targetSize, Runnable finished) {
+        Dimension size = new Dimension(targetSize);
+        return thumbnailLoader.submit(() -> {
+            try {
+                return load(file, size);
+            } finally {
+                finished.run();
+            }
+        });
+    }
+
+    /**
+     * @return the image fitted within the target size, keeping its aspect
+     * ratio; images smaller than the target are left as they are
+     */
+    public static BufferedImage load(File file, Dimension targetSize) throws IOException {
+        BufferedImage cached = SlideCache.get(file, targetSize);
+        if (cached != null) {
+            return cached;
+        }
+        BufferedImage image = decode(file, targetSize);
+        SlideCache.put(file, targetSize, image);
+        return image;
+    }
+
+    private static BufferedImage decode(File file, Dimension targetSize) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) {
+                throw new IOException("Cannot open " + file);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Not a readable image: " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (targetSize.width > 0 && targetSize.height > 0) {
+                    //whole steps only, so the decoded image is never smaller than it will be shown
+                    int subsampling = Math.max(1, Math.min(width / targetSize.width, height / targetSize.height));
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                BufferedImage image = reader.read(0, param);
+                return fit(image, targetSize);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage fit(BufferedImage image, Dimension targetSize) {
+        if (targetSize.width < 1 || targetSize.height < 1
+                || (image.getWidth() <= targetSize.width && image.getHeight() <= targetSize.height)) {
+            return image;
+        }
+        Dimension size = ImageUtils.aspectScaledSize(image.getWidth(), image.getHeight(), targetSize.width, targetSize.height);
+        return ImageUtils.copyAspectScaled(image, size.width, size.height, Optional.of(Scalr.Method.QUALITY));
+    }
+
+    private SlideLoader() {
+    }
+}